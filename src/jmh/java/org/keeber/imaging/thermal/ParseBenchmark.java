@@ -0,0 +1,72 @@
+package org.keeber.imaging.thermal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.keeber.imaging.thermal.FlirImage.FlirImageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing (including decoding the raw values) of synthetic FFF content and thermal JPEGs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({ "80x60", "160x120", "320x240", "640x512", "1280x1024" })
+    public String size;
+
+    @Param({ "LE", "BE", "PNG" })
+    public String subType;
+
+    private byte[] fff, jpg;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] wh = size.split("x");
+        int sub = switch (subType) {
+            case "BE" -> FlirFormat.FlirRecord.Type.SubType.BE;
+            case "PNG" -> FlirFormat.FlirRecord.Type.SubType.PNG;
+            default -> FlirFormat.FlirRecord.Type.SubType.LE;
+        };
+        fff = SyntheticFlir.fff(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), sub, 1L);
+        jpg = SyntheticFlir.jpg(fff);
+    }
+
+    @Benchmark
+    public void fromFFF(Blackhole bh) throws IOException, FlirImageException {
+        FlirImage image = FlirImage.fromFFF(new ByteArrayInputStream(fff));
+        bh.consume(image.getRawValues());
+    }
+
+    @Benchmark
+    public void fromFFFBuffer(Blackhole bh) throws FlirImageException {
+        FlirImage image = FlirImage.fromFFF(ByteBuffer.wrap(fff));
+        bh.consume(image.getRawValues());
+    }
+
+    @Benchmark
+    public void fromJPG(Blackhole bh) throws IOException, FlirImageException {
+        FlirImage image = FlirImage.fromJPG(new ByteArrayInputStream(jpg));
+        bh.consume(image.getRawValues());
+    }
+
+}
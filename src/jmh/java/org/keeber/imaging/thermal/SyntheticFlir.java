@@ -0,0 +1,214 @@
+package org.keeber.imaging.thermal;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferUShort;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates (deterministic) synthetic FFF content and thermal JPEGs - so the benchmarks do not depend on
+ * sample files. The content has a valid header, record directory, Camera / Palette / Pip records (with
+ * typical values) and a Raw record of the requested sub type.
+ */
+public class SyntheticFlir {
+    private static final int DIRECTORY = 0x40;
+    private static final int CAMERA_LENGTH = 0x500;
+    private static final int PALETTE_COLORS = 224;
+    private static final int PIP_LENGTH = 0x10;
+    private static final int SEGMENT_LENGTH = 0xFFFF - 2 - 8;    // Max APP1 length - length field - FLIR header
+
+    /**
+     * Raw values: a gradient with noise and a hot spot in the center.
+     *
+     * @param wd width
+     * @param ht height
+     * @param seed for the noise
+     * @return the raw values
+     */
+    public static short[] rawValues(int wd, int ht, long seed) {
+        Random random = new Random(seed);
+        short[] raw = new short[wd * ht];
+        int cx = wd / 2, cy = ht / 2, r2 = (wd * wd) / 64;
+        for (int y = 0; y < ht; y++) {
+            for (int x = 0; x < wd; x++) {
+                int v = 14000 + ((x * 4000) / wd) + ((y * 1000) / ht) + random.nextInt(250);
+                if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < r2) {
+                    v += 6000;
+                }
+                raw[y * wd + x] = (short) v;
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * FFF content with synthetic raw values.
+     *
+     * @param wd width
+     * @param ht height
+     * @param subType of the raw record ({@link FlirFormat.FlirRecord.Type.SubType})
+     * @param seed for the raw values
+     * @return the FFF content
+     */
+    public static byte[] fff(int wd, int ht, int subType, long seed) {
+        return fff(wd, ht, subType, rawValues(wd, ht, seed));
+    }
+
+    /**
+     * FFF content with the provided raw values.
+     *
+     * @param wd width
+     * @param ht height
+     * @param subType of the raw record ({@link FlirFormat.FlirRecord.Type.SubType})
+     * @param raw values (wd * ht)
+     * @return the FFF content
+     */
+    public static byte[] fff(int wd, int ht, int subType, short[] raw) {
+        byte[][] records = { rawRecord(wd, ht, subType, raw), cameraRecord(), paletteRecord(), pipRecord() };
+        int[] types = { FlirFormat.FlirRecord.Type.RAW, FlirFormat.FlirRecord.Type.CAMERA, FlirFormat.FlirRecord.Type.PALETTE, FlirFormat.FlirRecord.Type.PIP };
+        int count = records.length + 1; // ...and an empty record
+        int offset = DIRECTORY + count * FlirFormat.FlirRecord.LENGTH, length = offset;
+        for (byte[] record : records) {
+            length += record.length;
+        }
+        ByteBuffer fff = ByteBuffer.allocate(length).order(ByteOrder.BIG_ENDIAN);
+        fff.put(FlirFormat.Header.Index.FORMAT, FlirFormat.Header.FORMAT.getBytes(StandardCharsets.US_ASCII));
+        fff.put(FlirFormat.Header.Index.CREATOR, "CAMCTRL".getBytes(StandardCharsets.US_ASCII));
+        fff.putInt(FlirFormat.Header.Index.VERSION, 100);
+        fff.putInt(FlirFormat.Header.Index.RECORD_OFFSET, DIRECTORY);
+        fff.putInt(FlirFormat.Header.Index.RECORD_NUMBER, count);
+        fff.putInt(FlirFormat.Header.Index.INDEX_ID, count + 1);
+        for (int i = 0; i < records.length; i++) {
+            int entry = DIRECTORY + i * FlirFormat.FlirRecord.LENGTH;
+            fff.putShort(entry + FlirFormat.FlirRecord.Index.TYPE, (short) types[i]);
+            fff.putShort(entry + FlirFormat.FlirRecord.Index.SUB_TYPE, (short) (types[i] == FlirFormat.FlirRecord.Type.RAW ? subType : 1));
+            fff.putInt(entry + FlirFormat.FlirRecord.Index.VERSION, 100);
+            fff.putInt(entry + FlirFormat.FlirRecord.Index.INDEX, i + 1);
+            fff.putInt(entry + FlirFormat.FlirRecord.Index.OFFSET, offset);
+            fff.putInt(entry + FlirFormat.FlirRecord.Index.LENGTH, records[i].length);
+            fff.put(offset, records[i]);
+            offset += records[i].length;
+        }
+        return fff.array();
+    }
+
+    /**
+     * Wraps FFF content in a thermal JPEG (split over as many APP1 segments as required).
+     *
+     * @param fff content
+     * @return the JPEG
+     */
+    public static byte[] jpg(byte[] fff) {
+        try {
+            ByteArrayOutputStream visual = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB), "jpg", visual);
+            byte[] jpg = visual.toByteArray();
+            int app0 = 4 + (((jpg[4] & 0xff) << 8) | (jpg[5] & 0xff)); // SOI + APP0 (JFIF must be first)
+            int segments = (fff.length + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(jpg.length + fff.length + segments * 12);
+            out.write(jpg, 0, app0);
+            for (int i = 0; i < segments; i++) {
+                int len = Math.min(SEGMENT_LENGTH, fff.length - i * SEGMENT_LENGTH);
+                out.write(0xff);
+                out.write(FlirFormat.ThermalJpeg.Marker.APP1);
+                out.write((len + 10) >> 8);
+                out.write((len + 10) & 0xff);
+                out.write("FLIR\0".getBytes(StandardCharsets.US_ASCII));
+                out.write(1);
+                out.write(i);
+                out.write(segments - 1);
+                out.write(fff, i * SEGMENT_LENGTH, len);
+            }
+            out.write(jpg, app0, jpg.length - app0);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] rawRecord(int wd, int ht, int subType, short[] raw) {
+        ByteBuffer header = ByteBuffer.allocate(FlirFormat.FlirRecord.Raw.Index.DATA)
+            .order(subType == FlirFormat.FlirRecord.Type.SubType.BE ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        header.putShort(0, (short) 2);
+        header.putShort(FlirFormat.FlirRecord.Raw.Index.WIDTH, (short) wd);
+        header.putShort(FlirFormat.FlirRecord.Raw.Index.HEIGHT, (short) ht);
+        ByteBuffer record;
+        if (subType == FlirFormat.FlirRecord.Type.SubType.PNG) {
+            byte[] png = png(wd, ht, raw);
+            record = ByteBuffer.allocate(header.capacity() + png.length);
+            record.put(0, header.array()).put(header.capacity(), png);
+        } else {
+            record = ByteBuffer.allocate(header.capacity() + raw.length * 2);
+            record.put(0, header.array());
+            record.slice(header.capacity(), raw.length * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(raw);
+        }
+        return record.array();
+    }
+
+    private static byte[] png(int wd, int ht, short[] raw) {
+        // 16bit grey (the samples are stored byte swapped)
+        BufferedImage image = new BufferedImage(wd, ht, BufferedImage.TYPE_USHORT_GRAY);
+        short[] data = ((DataBufferUShort) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Short.reverseBytes(raw[i]);
+        }
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", png);
+            return png.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] cameraRecord() {
+        ByteBuffer camera = ByteBuffer.allocate(CAMERA_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.Emissivity.getIndex(), 0.95f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.ObjectDistance.getIndex(), 1.0f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.ReflectedApparentTemperature.getIndex(), 293.15f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTemperature.getIndex(), 293.15f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.IRWindowTemperature.getIndex(), 293.15f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.IRWindowTransmission.getIndex(), 1.0f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.RelativeHumidity.getIndex(), 0.5f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckR1.getIndex(), 21106.77f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckB.getIndex(), 1501f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckF.getIndex(), 1f);
+        camera.putInt(FlirFormat.FlirRecord.Camera.Properties.PlanckO.getIndex(), -7340);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckR2.getIndex(), 0.012545258f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransAlpha1.getIndex(), 0.006569f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransAlpha2.getIndex(), 0.01262f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransBeta1.getIndex(), -0.002276f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransBeta2.getIndex(), -0.00667f);
+        camera.putFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransX.getIndex(), 1.9f);
+        camera.put(FlirFormat.FlirRecord.Camera.Properties.CameraModel.getIndex(), "Synthetic".getBytes(StandardCharsets.US_ASCII));
+        camera.putShort(FlirFormat.FlirRecord.Camera.Properties.RawValueRangeMin.getIndex(), (short) 10000);
+        camera.putShort(FlirFormat.FlirRecord.Camera.Properties.RawValueRangeMax.getIndex(), (short) 30000);
+        return camera.array();
+    }
+
+    private static byte[] paletteRecord() {
+        ByteBuffer palette = ByteBuffer.allocate(FlirFormat.FlirRecord.Palette.Index.DATA + PALETTE_COLORS * 3).order(ByteOrder.LITTLE_ENDIAN);
+        palette.putInt(FlirFormat.FlirRecord.Palette.Index.COLORS, PALETTE_COLORS);
+        palette.put(FlirFormat.FlirRecord.Palette.Properties.PaletteName.getIndex(), "iron".getBytes(StandardCharsets.US_ASCII));
+        for (int n = 0; n < PALETTE_COLORS; n++) { // YCbCr
+            palette.put(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 0, (byte) (16 + n));
+            palette.put(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 1, (byte) (128 + (n % 64)));
+            palette.put(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 2, (byte) (128 - (n % 64)));
+        }
+        return palette.array();
+    }
+
+    private static byte[] pipRecord() {
+        ByteBuffer pip = ByteBuffer.allocate(PIP_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        pip.putFloat(FlirFormat.FlirRecord.Pip.Properties.Real2IR.getIndex(), 1.0f);
+        return pip.array();
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.keeber.imaging.thermal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.keeber.imaging.thermal.FlirImage.FlirImageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The toolkit operations on a (parsed) synthetic image - temperatures, rendering, thumbnails, histogram 
+ * and the 'pretty' SVG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ToolkitBenchmark {
+
+    @Param({ "80x60", "160x120", "320x240", "640x512", "1280x1024" })
+    public String size;
+
+    private FlirImage image;
+    private FlirToolkit toolkit;
+    private int max, min;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, FlirImageException {
+        String[] wh = size.split("x");
+        byte[] fff = SyntheticFlir.fff(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), FlirFormat.FlirRecord.Type.SubType.LE, 1L);
+        toolkit = (image = FlirImage.fromFFF(new ByteArrayInputStream(fff))).getToolkit();
+        max = toolkit.getStats().getMax();
+        min = toolkit.getStats().getMin();
+    }
+
+    @Benchmark
+    public double[] getTemperatures() {
+        return toolkit.getTemperatures();
+    }
+
+    @Benchmark
+    public int[] transform() {
+        return toolkit.transform((x, y, w, h, l, r) -> l < 0 ? 0 : l > 1 ? 0xffffffff : (int) (l * 0xff), max, min);
+    }
+
+    @Benchmark
+    public Object asImagePalletted() {
+        return toolkit.asImagePalletted(FlirFormat.Palettes.FAKEBOW, max, min, 0x77ff0000, 0x770000ff);
+    }
+
+    @Benchmark
+    public Object asThumbnail() {
+        // A new pyramid - so the levels are pooled every time
+        Pyramid pyramid = new Pyramid(image, toolkit.getTemperatureLut(), Pyramid.Mode.MEAN);
+        return toolkit.asImage(pyramid.preview(64, 48), FlirToolkit.RowTransformer.palletted(FlirFormat.Palettes.FAKEBOW, max, min, 0x77ff0000, 0x770000ff));
+    }
+
+    @Benchmark
+    public int[] createHistogram() {
+        return toolkit.createHistogram(256, max, min);
+    }
+
+    @Benchmark
+    public String asPrettySVG() throws IOException {
+        return toolkit.asPrettySVG();
+    }
+
+}
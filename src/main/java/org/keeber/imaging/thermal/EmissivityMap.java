@@ -0,0 +1,139 @@
+package org.keeber.imaging.thermal;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * The emissivity of each pixel of an image - regions (rectangles, any other {@link Roi} or masks) with their own
+ * emissivity, over the default of the {@link TemperatureModel}. Later regions replace earlier ones where they
+ * overlap.
+ *
+ * The map is immutable and stored as a class per pixel (a byte) - so a map has at most 255 distinct
+ * emissivities.
+ */
+public final class EmissivityMap {
+    @Getter private final int width, height;
+    private final byte[] classes;               // Per pixel (0 is the default of the model)
+    private final double[] emissivities;        // By class (0 is unused)
+
+    private EmissivityMap(int width, int height, byte[] classes, double[] emissivities) {
+        this.width = width;
+        this.height = height;
+        this.classes = classes;
+        this.emissivities = emissivities;
+    }
+
+    /**
+     * @param width of the image
+     * @param height of the image
+     * @return a builder of a map (every pixel at the default emissivity)
+     */
+    public static Builder builder(int width, int height) {
+        return new Builder(width, height);
+    }
+
+    /**
+     * The emissivity of a pixel.
+     *
+     * @param x column
+     * @param y row
+     * @return the emissivity - or NaN if the pixel is at the default of the model
+     */
+    public double getEmissivity(int x, int y) {
+        int c = classes[y * width + x] & 0xff;
+        return c == 0 ? Double.NaN : emissivities[c];
+    }
+
+    byte[] classes() {
+        return classes;
+    }
+
+    double[] emissivities() {
+        return emissivities;
+    }
+
+    /**
+     * Builds an {@link EmissivityMap}.
+     */
+    public static class Builder {
+        private final int width, height;
+        private final byte[] classes;
+        private double[] emissivities = new double[1];
+
+        private Builder(int width, int height) {
+            if (width < 0 || height < 0) {
+                throw new IllegalArgumentException("Width and height must not be negative.");
+            }
+            this.width = width;
+            this.height = height;
+            this.classes = new byte[width * height];
+        }
+
+        /**
+         * @param x left column
+         * @param y top row
+         * @param wd width in pixels
+         * @param ht height in pixels
+         * @param emissivity of the rectangle
+         * @return this builder
+         */
+        public Builder rect(int x, int y, int wd, int ht, double emissivity) {
+            return region(Roi.rect(x, y, wd, ht), emissivity);
+        }
+
+        /**
+         * @param roi region (clipped to the image)
+         * @param emissivity of the region
+         * @return this builder
+         */
+        public Builder region(Roi roi, double emissivity) {
+            byte c = classOf(emissivity);
+            roi.spans(width, height, (y, x0, x1) -> Arrays.fill(classes, y * width + x0, y * width + x1, c));
+            return this;
+        }
+
+        /**
+         * @param mask of the pixels (row by row - width * height)
+         * @param emissivity of the masked pixels
+         * @return this builder
+         */
+        public Builder mask(boolean[] mask, double emissivity) {
+            if (mask.length != classes.length) {
+                throw new IllegalArgumentException("Mask is not the size of the image (" + mask.length + " != " + classes.length + ").");
+            }
+            byte c = classOf(emissivity);
+            for (int i = 0; i < mask.length; i++) {
+                if (mask[i]) {
+                    classes[i] = c;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return the map
+         */
+        public EmissivityMap build() {
+            return new EmissivityMap(width, height, classes.clone(), emissivities.clone());
+        }
+
+        private byte classOf(double emissivity) {
+            if (!(emissivity > 0) || emissivity > 1) {
+                throw new IllegalArgumentException("Emissivity " + emissivity + " is not in (0, 1].");
+            }
+            for (int c = 1; c < emissivities.length; c++) {
+                if (emissivities[c] == emissivity) {
+                    return (byte) c;
+                }
+            }
+            if (emissivities.length == 256) {
+                throw new IllegalArgumentException("A map has at most 255 distinct emissivities.");
+            }
+            emissivities = Arrays.copyOf(emissivities, emissivities.length + 1);
+            emissivities[emissivities.length - 1] = emissivity;
+            return (byte) (emissivities.length - 1);
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+package org.keeber.imaging.thermal;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import lombok.Getter;
+
+/**
+ * Processes batches of thermal JPEG / FFF files in parallel. Files are loaded on virtual threads (I/O)
+ * and decoded / rendered by the sink on a fixed size pool (CPU). The number of files in flight is bounded
+ * (so a large batch does not load every file at once) and failures are isolated per file - they are
+ * logged, collected in the {@link Report} and the batch continues.
+ */
+public class FlirBatchProcessor implements AutoCloseable {
+    static final Logger logger = Logger.getLogger(FlirBatchProcessor.class.getName());
+    private final ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService cpu;
+    private final int maxInFlight;
+
+    /**
+     * A processor with a thread per available processor (and twice that many files in flight).
+     */
+    public FlirBatchProcessor() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param threads the size of the (CPU) pool used to decode and render.
+     * @param maxInFlight the maximum number of files loaded but not yet processed.
+     */
+    public FlirBatchProcessor(int threads, int maxInFlight) {
+        if (threads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Threads and files in flight must be at least 1.");
+        }
+        this.cpu = Executors.newFixedThreadPool(threads);
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Processes the files in the directory matching the glob (eg: `*.jpg`).
+     *
+     * @param directory containing the files
+     * @param glob to match file names
+     * @param sink for each parsed image
+     * @return the report
+     */
+    public Report process(Path directory, String glob, Sink sink) throws IOException, InterruptedException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        return process(files, sink);
+    }
+
+    /**
+     * Processes the files - blocking until every file is complete (or has failed).
+     *
+     * @param files to process
+     * @param sink for each parsed image
+     * @return the report
+     */
+    public Report process(Collection<Path> files, Sink sink) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger processed = new AtomicInteger();
+        Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+        for (Path file : files) {
+            inFlight.acquire();
+            CompletableFuture.supplyAsync(() -> load(file), io)
+                .thenAcceptAsync(image -> accept(sink, file, image), cpu)
+                .whenComplete((v, e) -> {
+                    if (e == null) {
+                        processed.incrementAndGet();
+                    } else {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        cause = cause instanceof UncheckedIOException && cause.getCause() != null ? cause.getCause() : cause;
+                        logger.log(Level.WARNING, file.toString(), cause);
+                        failures.add(new Failure(file, cause));
+                    }
+                    inFlight.release();
+                });
+        }
+        inFlight.acquire(maxInFlight); // Wait for the files in flight
+        inFlight.release(maxInFlight);
+        return new Report(processed.get(), List.copyOf(failures));
+    }
+
+    private static FlirImage load(Path file) {
+        try {
+            return FlirImage.fromPath(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (FlirImage.FlirImageException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static void accept(Sink sink, Path file, FlirImage image) {
+        try {
+            sink.accept(file, image);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        io.shutdown();
+        cpu.shutdown();
+    }
+
+    /**
+     * A file that could not be processed.
+     */
+    public static record Failure(Path file, Throwable error) {}
+
+    /**
+     * The outcome of a batch.
+     */
+    public static class Report {
+        @Getter private final int processed;
+        @Getter private final List<Failure> failures;
+
+        private Report(int processed, List<Failure> failures) {
+            this.processed = processed;
+            this.failures = failures;
+        }
+
+        @Override
+        public String toString() {
+            return processed + " processed, " + failures.size() + " failed";
+        }
+    }
+
+    /**
+     * Receives each parsed image of the batch (on a CPU thread).
+     */
+    @FunctionalInterface
+    public static interface Sink {
+
+        /**
+         * @param file the image was read from
+         * @param image the parsed image
+         */
+        public void accept(Path file, FlirImage image) throws IOException;
+
+        /**
+         * @param next sink to call after this one
+         * @return a sink calling both
+         */
+        public default Sink andThen(Sink next) {
+            return (file, image) -> {
+                accept(file, image);
+                next.accept(file, image);
+            };
+        }
+
+        /**
+         * Writes a PNG named after the source file (eg: `file.jpg_DEFAULT.png`).
+         *
+         * @param directory to write to
+         * @param suffix appended to the source file name
+         * @param renderer creates the image (eg: `FlirToolkit::asImageDefault`)
+         * @return the sink
+         */
+        public static Sink png(Path directory, String suffix, Function<FlirToolkit, BufferedImage> renderer) {
+            return (file, image) -> {
+                try (OutputStream os = Files.newOutputStream(directory.resolve(file.getFileName() + suffix + ".png"))) {
+                    FlirToolkit.writePNG(renderer.apply(image.getToolkit()), os);
+                }
+            };
+        }
+
+        /**
+         * Writes the 'pretty' SVG named after the source file (eg: `file.jpg.svg`).
+         *
+         * @param directory to write to
+         * @return the sink
+         */
+        public static Sink svg(Path directory) {
+            return (file, image) -> {
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(directory.resolve(file.getFileName() + ".svg")))) {
+                    image.getToolkit().writePrettySVG(os);
+                }
+            };
+        }
+
+        /**
+         * Writes the metadata (creator, dimensions and properties) as JSON named after the source file
+         * (eg: `file.jpg.json`).
+         *
+         * @param directory to write to
+         * @return the sink
+         */
+        public static Sink json(Path directory) {
+            return (file, image) -> {
+                try (Writer writer = Files.newBufferedWriter(directory.resolve(file.getFileName() + ".json"), StandardCharsets.UTF_8)) {
+                    writer.write(FlirExporter.metadata(image, null));
+                }
+            };
+        }
+
+        /**
+         * Streams the values (see {@link FlirExporter}) named after the source file and plane (eg: `file.jpg_CELSIUS.npy`) 
+         * with the JSON sidecar (eg: `file.jpg_CELSIUS.npy.json`).
+         *
+         * @param directory to write to
+         * @param plane of values to write
+         * @param format to write
+         * @return the sink
+         */
+        public static Sink export(Path directory, FlirExporter.Plane plane, FlirExporter.Format format) {
+            return (file, image) -> {
+                Path values = directory.resolve(file.getFileName() + "_" + plane + "." + format.getExtension());
+                try (FileChannel channel = FileChannel.open(values, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    FlirExporter.write(image, plane, format, channel);
+                }
+                try (FileChannel channel = FileChannel.open(values.resolveSibling(values.getFileName() + ".json"), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    FlirExporter.writeSidecar(image, plane, format, channel);
+                }
+            };
+        }
+
+    }
+
+}
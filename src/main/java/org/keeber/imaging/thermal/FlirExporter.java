@@ -0,0 +1,263 @@
+package org.keeber.imaging.thermal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+import org.keeber.imaging.thermal.FlirFormat.FlirRecord.FlirProperty;
+
+/**
+ * Streams the raw values (or temperatures) of an image to a channel - as little endian binary, a NumPy `.npy`
+ * array or a single strip TIFF - with a small JSON sidecar for the metadata. Values are written a row at a time
+ * through a fixed size buffer straight from the raw values (and the temperature table) so nothing the size of
+ * the image is allocated.
+ */
+public final class FlirExporter {
+    private static final int BUFFER = 0x10000;
+
+    private FlirExporter() {}
+
+    /**
+     * The container of the values.
+     */
+    public static enum Format {
+        /** The values only (little endian, row by row) - described by the sidecar. */
+        BINARY("bin"),
+        /** A NumPy array (version 1.0) of shape (height, width). */
+        NPY("npy"),
+        /** A single strip, uncompressed, grayscale TIFF (little endian). */
+        TIFF("tif");
+
+        private final String extension;
+
+        private Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * @return the file extension (without the dot)
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * The values written.
+     */
+    public static enum Plane {
+        /** The raw values (unsigned 16bit). */
+        RAW(2, null),
+        /** Temperatures as centi-Kelvin (unsigned 16bit - see {@link FlirToolkit#getCentiKelvin(short[])}). */
+        CENTI_KELVIN(2, null),
+        /** Temperatures in Celsius (32bit float). */
+        CELSIUS(4, FlirToolkit.Unit.CELSIUS),
+        /** Temperatures in Fahrenheit (32bit float). */
+        FAHRENHEIT(4, FlirToolkit.Unit.FAHRENHEIT),
+        /** Temperatures in Kelvin (32bit float). */
+        KELVIN(4, FlirToolkit.Unit.KELVIN);
+
+        private final int bytes;
+        private final FlirToolkit.Unit unit;
+
+        private Plane(int bytes, FlirToolkit.Unit unit) {
+            this.bytes = bytes;
+            this.unit = unit;
+        }
+
+        /**
+         * @return the NumPy type of the values (`<u2` or `<f4`)
+         */
+        public String getDtype() {
+            return unit == null ? "<u2" : "<f4";
+        }
+    }
+
+    /**
+     * Writes the values of the image to the channel (which is not closed).
+     *
+     * @param flir image
+     * @param plane of values to write
+     * @param format to write
+     * @param channel to write to
+     * @return the number of bytes written
+     */
+    public static long write(FlirImage flir, Plane plane, Format format, WritableByteChannel channel) throws IOException {
+        int wd = flir.imageWd, ht = flir.imageHt;
+        if (flir.rawLength() == 0) {
+            throw new IllegalStateException("The image has no raw values (only the metadata was read).");
+        }
+        Output out = new Output(channel, ByteBuffer.allocateDirect(Math.max(BUFFER, wd * plane.bytes)).order(ByteOrder.LITTLE_ENDIAN));
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.ENCODE).frame(flir)) {
+            switch (format) {
+                case NPY -> npyHeader(out.buffer, plane, wd, ht);
+                case TIFF -> tiffHeader(out.buffer, plane, wd, ht);
+                case BINARY -> {}
+            }
+            TemperatureLut lut = plane == Plane.RAW ? null : flir.getToolkit().getTemperatureLut();
+            float[] floats = plane.unit == null ? null : new float[wd];
+            short[] shorts = plane == Plane.CENTI_KELVIN ? new short[wd] : null;
+            try {
+                flir.forEachRow((y, raw, offset) -> {
+                    out.ensure(wd * plane.bytes);
+                    if (plane == Plane.RAW) {
+                        out.buffer.asShortBuffer().put(raw, offset, wd);
+                    } else if (shorts != null) {
+                        lut.applyCentiKelvin(raw, offset, shorts, 0, wd);
+                        out.buffer.asShortBuffer().put(shorts);
+                    } else {
+                        lut.apply(raw, offset, floats, 0, wd, plane.unit);
+                        out.buffer.asFloatBuffer().put(floats);
+                    }
+                    out.buffer.position(out.buffer.position() + wd * plane.bytes);
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+            span.bytes(out.written);
+        }
+        return out.written;
+    }
+
+    /**
+     * Writes the JSON sidecar (UTF-8) for values written with {@link #write(FlirImage, Plane, Format, WritableByteChannel)} -
+     * the metadata of the image (creator, dimensions and properties) and a description of the values. The channel
+     * is not closed.
+     *
+     * @param flir image
+     * @param plane of values written
+     * @param format written
+     * @param channel to write to
+     */
+    public static void writeSidecar(FlirImage flir, Plane plane, Format format, WritableByteChannel channel) throws IOException {
+        String data = "{\"plane\":" + quote(plane.name())
+            + ",\"format\":" + quote(format.name())
+            + ",\"dtype\":" + quote(plane.getDtype())
+            + ",\"shape\":[" + flir.imageHt + "," + flir.imageWd + "]}";
+        ByteBuffer json = ByteBuffer.wrap(metadata(flir, data).getBytes(StandardCharsets.UTF_8));
+        while (json.hasRemaining()) {
+            channel.write(json);
+        }
+    }
+
+    /**
+     * The metadata of the image as JSON - with the data description (a JSON object) if not null.
+     */
+    static String metadata(FlirImage image, String data) {
+        return "{\"creator\":" + quote(image.getCreator())
+            + ",\"imageWd\":" + image.getImageWd()
+            + ",\"imageHt\":" + image.getImageHt()
+            + ",\"properties\":[" + image.getProperties().stream().map(p ->
+                "{\"key\":" + quote(p.getKey()) + ",\"category\":" + quote(p.getCategory()) + ",\"value\":" + value(p) + "}"
+            ).collect(Collectors.joining(",")) + "]"
+            + (data == null ? "" : ",\"data\":" + data) + "}";
+    }
+
+    private static String value(FlirProperty<?> p) {
+        Object v = p.getValue();
+        if (v instanceof Integer[] color) {
+            return "[" + color[0] + "," + color[1] + "," + color[2] + "]";
+        }
+        if (v instanceof Float f && (f.isNaN() || f.isInfinite())) {
+            return "null";
+        }
+        return v instanceof Number ? v.toString() : quote(v == null ? null : v.toString());
+    }
+
+    private static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                default -> sb.append(c < 0x20 ? String.format("\\u%04x", (int) c) : String.valueOf(c));
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * The NumPy (version 1.0) header - padded so the values start on a 64 byte boundary.
+     */
+    private static void npyHeader(ByteBuffer buffer, Plane plane, int wd, int ht) {
+        String dict = "{'descr': '" + plane.getDtype() + "', 'fortran_order': False, 'shape': (" + ht + ", " + wd + "), }";
+        int length = dict.length() + 1;
+        length += (64 - (10 + length) % 64) % 64;
+        buffer.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII)).put((byte) 1).put((byte) 0).putShort((short) length);
+        buffer.put((dict + " ".repeat(length - dict.length() - 1) + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * The TIFF header and (only) IFD - the values follow as a single strip.
+     */
+    private static void tiffHeader(ByteBuffer buffer, Plane plane, int wd, int ht) {
+        long length = (long) wd * ht * plane.bytes;
+        if (length > 0xffffffffL) {
+            throw new IllegalArgumentException("Image is too large for a TIFF (" + length + " bytes).");
+        }
+        int entries = 10, offset = 8 + 2 + entries * 12 + 4;
+        buffer.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        buffer.putShort((short) entries);
+        tiffEntry(buffer, 256, 4, wd);                                  // ImageWidth
+        tiffEntry(buffer, 257, 4, ht);                                  // ImageLength
+        tiffEntry(buffer, 258, 3, plane.bytes * 8);                     // BitsPerSample
+        tiffEntry(buffer, 259, 3, 1);                                   // Compression (none)
+        tiffEntry(buffer, 262, 3, 1);                                   // PhotometricInterpretation (black is zero)
+        tiffEntry(buffer, 273, 4, offset);                              // StripOffsets
+        tiffEntry(buffer, 277, 3, 1);                                   // SamplesPerPixel
+        tiffEntry(buffer, 278, 4, ht);                                  // RowsPerStrip
+        tiffEntry(buffer, 279, 4, (int) length);                        // StripByteCounts
+        tiffEntry(buffer, 339, 3, plane.unit == null ? 1 : 3);          // SampleFormat (unsigned / float)
+        buffer.putInt(0);                                               // No next IFD
+    }
+
+    private static void tiffEntry(ByteBuffer buffer, int tag, int type, int value) {
+        buffer.putShort((short) tag).putShort((short) type).putInt(1);
+        if (type == 3) {
+            buffer.putShort((short) value).putShort((short) 0);         // SHORT - left justified
+        } else {
+            buffer.putInt(value);
+        }
+    }
+
+    /**
+     * The buffer - written to the channel as it fills.
+     */
+    private static class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+        private long written;
+
+        private Output(WritableByteChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package org.keeber.imaging.thermal;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -68,6 +69,15 @@ public class FlirFormat {
 
         public static class Index {
             public static int APP1HEADER        = 0x8;         // Header length of the APP1 section
+            public static int APP1SEGMENT       = 0x6;         // Index of this segment (in the APP1 section header)
+            public static int APP1SEGMENTS      = 0x7;         // Index of the last segment (in the APP1 section header)
+        }
+
+        public static class Marker {                            // JPEG marker codes (following a 0xFF byte)
+            public static final int SOI         = 0xD8;         // Start of image
+            public static final int APP1        = 0xE1;         // Application segment 1 (FLIR data is stored in these)
+            public static final int SOS         = 0xDA;         // Start of scan (entropy coded data follows)
+            public static final int EOI         = 0xD9;         // End of image
         }
     }
 
@@ -109,12 +119,15 @@ public class FlirFormat {
             @NonNull @Getter String key;
             @NonNull @Getter transient Type type;
             @Getter @Setter(AccessLevel.PROTECTED) @Accessors(chain = true) String category;
+            @Getter transient int ordinal = -1;         // Position in FlirRecord.PROPERTIES (assigned once)
             private T value;
             public T getValue() { return this.value; }
             @SuppressWarnings("unchecked") void setValue(Object value) { this.value = (T) value; }
 
             public FlirProperty<T> clone() {
-                return new FlirProperty<T>(index, key, type);
+                FlirProperty<T> clone = new FlirProperty<T>(index, key, type).setCategory(category);
+                clone.ordinal = ordinal;
+                return clone;
             }
         }
 
@@ -126,11 +139,25 @@ public class FlirFormat {
          */
         public static class Camera {
 
+            public static final Schema SCHEMA = new Schema(Type.CAMERA, Camera.class.getSimpleName(),
+                Properties.Emissivity, Properties.ObjectDistance, Properties.ReflectedApparentTemperature, Properties.AtmosphericTemperature,
+                Properties.IRWindowTemperature, Properties.IRWindowTransmission, Properties.RelativeHumidity, Properties.PlanckR1,
+                Properties.PlanckB, Properties.PlanckF, Properties.PlanckO, Properties.PlanckR2,
+                Properties.AtmosphericTransAlpha1, Properties.AtmosphericTransAlpha2, Properties.AtmosphericTransBeta1, Properties.AtmosphericTransBeta2,
+                Properties.AtmosphericTransX, Properties.CameraTemperatureRangeMax, Properties.CameraTemperatureRangeMin, Properties.CameraTemperatureMaxClip,
+                Properties.CameraTemperatureMinClip, Properties.CameraTemperatureMaxWarn, Properties.CameraTemperatureMinWarn, Properties.CameraTemperatureMaxSaturated,
+                Properties.CameraTemperatureMinSaturated, Properties.CameraModel, Properties.CameraPartNumber, Properties.CameraSerialNumber,
+                Properties.CameraSoftware, Properties.LensModel, Properties.LensPartNumber, Properties.LensSerialNumber,
+                Properties.FilterModel, Properties.FilterPartNumber, Properties.FilterSerialNumber, Properties.RawValueRangeMin,
+                Properties.RawValueRangeMax, Properties.RawValueMedian, Properties.RawValueRange, Properties.DateTimeOriginal,
+                Properties.FocusStepCount, Properties.FocusDistance, Properties.FieldOfView, Properties.Framerate
+            );
+
             public static List<FlirProperty<?>> allProperties() {
-                return listPropertiesOf(Camera.Properties.class,Camera.class.getSimpleName());
+                return SCHEMA.getProperties();
             }
 
-            public static class Properties { // This class should only contain static FlirProperties (otherwise the `allProperties` method needs modifing to be more specific).
+            public static class Properties { // New properties must also be added to the SCHEMA.
                 public static FlirProperty<Float>   Emissivity = new FlirProperty<Float>(                   0x020, "Emissivity",                    FlirProperty.Type.FLOAT);
                 //
                 public static FlirProperty<Float>   ObjectDistance = new FlirProperty<Float>(               0x024, "ObjectDistance",                FlirProperty.Type.FLOAT);
@@ -205,11 +232,17 @@ public class FlirFormat {
                 public static int DATA          = 0x70;
             }
 
+            public static final Schema SCHEMA = new Schema(Type.PALETTE, Palette.class.getSimpleName(),
+                Properties.PaletteColors, Properties.PaletteFileName, Properties.PaletteName, Properties.PaletteMethod,
+                Properties.PaletteStretch, Properties.AboveColor, Properties.BelowColor, Properties.OverflowColor,
+                Properties.UnderflowColor, Properties.Isotherm1Color, Properties.Isotherm2Color
+            );
+
             public static List<FlirProperty<?>> allProperties() {
-                return listPropertiesOf(Palette.Properties.class,Palette.class.getSimpleName());
+                return SCHEMA.getProperties();
             }
 
-            public static class Properties { // This class should only contain static FlirProperties (otherwise the `allProperties` method needs modifing to be more specific).
+            public static class Properties { // New properties must also be added to the SCHEMA.
                 public static FlirProperty<Integer> PaletteColors = new FlirProperty<Integer>(              0x000, "PaletteColors",                 FlirProperty.Type.INT32);
                 public static FlirProperty<String> PaletteFileName = new FlirProperty<String>(              0x030, "PaletteFileName",               FlirProperty.Type.STR32);
                 public static FlirProperty<String> PaletteName = new FlirProperty<String>(                  0x050, "PaletteName",                   FlirProperty.Type.STR32);
@@ -232,7 +265,7 @@ public class FlirFormat {
          * databuffer.
          * 
          * The data is either Big Endian (sub-type == BE), Little Endian (sub-type == LE),
-         * or a PNG - the later of which is currently unsupported by this library.
+         * or a PNG (sub-type == PNG).
          */
         public static class Raw {
 
@@ -240,16 +273,23 @@ public class FlirFormat {
                 public static int WIDTH         = 0x02;         // Width  of the raw image
                 public static int HEIGHT        = 0x04;         // Height of the raw image
                 public static int DATA          = 0x20;         // Raw data (length == the record lenght - this index (0x20))
+                public static int PNG_WIDTH     = 0x10;         // Width  of a PNG raw image (in the IHDR chunk, from the start of the data)
+                public static int PNG_HEIGHT    = 0x14;         // Height of a PNG raw image (in the IHDR chunk, from the start of the data)
             }
         }
 
         public static class Pip {
 
+            public static final Schema SCHEMA = new Schema(Type.PIP, Pip.class.getSimpleName(),
+                Properties.Real2IR, Properties.OffsetX, Properties.OffsetY, Properties.PiPX1,
+                Properties.PiPX2, Properties.PiPY1, Properties.PiPY2
+            );
+
             public static List<FlirProperty<?>> allProperties() {
-                return listPropertiesOf(Pip.Properties.class,Pip.class.getSimpleName());
+                return SCHEMA.getProperties();
             }
 
-            public static class Properties { // This class should only contain static FlirProperties (otherwise the `allProperties` method needs modifing to be more specific).
+            public static class Properties { // New properties must also be added to the SCHEMA.
                 public static FlirProperty<Float> Real2IR = new FlirProperty<Float>(                        0x000, "Real2IR",                       FlirProperty.Type.FLOAT);
                 public static FlirProperty<Integer> OffsetX = new FlirProperty<Integer>(                    0x004, "OffsetX",                       FlirProperty.Type.INT16S);
                 public static FlirProperty<Integer> OffsetY = new FlirProperty<Integer>(                    0x006, "OffsetY",                       FlirProperty.Type.INT16S);
@@ -261,6 +301,53 @@ public class FlirFormat {
 
         }
 
+        /**
+         * The (immutable) properties of a record type, in record order.
+         */
+        public static class Schema {
+            @Getter private final int recordType;
+            @Getter private final String category;
+            @Getter private final List<FlirProperty<?>> properties;
+
+            private Schema(int recordType, String category, FlirProperty<?>... properties) {
+                this.recordType = recordType;
+                this.category = category;
+                this.properties = List.of(properties);
+                this.properties.forEach(p -> p.setCategory(category));
+            }
+        }
+
+        /**
+         * Every property of every schema - the position of a property in this list is its ordinal.
+         */
+        public static final List<FlirProperty<?>> PROPERTIES = Stream.of(Camera.SCHEMA, Palette.SCHEMA, Pip.SCHEMA)
+            .flatMap(schema -> schema.getProperties().stream()).toList();
+
+        static {
+            for (int i = 0; i < PROPERTIES.size(); i++) {
+                PROPERTIES.get(i).ordinal = i;
+            }
+        }
+
+        /**
+         * The schema of the record type.
+         * 
+         * @param recordType {@link FlirRecord.Type}
+         * @return the schema or null for record types without properties
+         */
+        public static Schema schemaOf(int recordType) {
+            return switch (recordType) {
+                case Type.CAMERA -> Camera.SCHEMA;
+                case Type.PALETTE -> Palette.SCHEMA;
+                case Type.PIP -> Pip.SCHEMA;
+                default -> null;
+            };
+        }
+
+        /**
+         * @deprecated uses reflection - use the SCHEMA of the record instead.
+         */
+        @Deprecated
         public static List<FlirProperty<?>> listPropertiesOf(Class<?> clazz, String category ) {
             return Arrays.stream(clazz.getDeclaredFields()).<FlirProperty<?>>map(f -> {
                 try {
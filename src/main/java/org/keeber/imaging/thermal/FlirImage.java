@@ -3,34 +3,268 @@ package org.keeber.imaging.thermal;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferUShort;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageReader;
-import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.ImageInputStream;
 
 import org.keeber.imaging.thermal.FlirFormat.FlirRecord.FlirProperty;
-import org.w3c.dom.NodeList;
 
 import lombok.Getter;
 
 public class FlirImage {
     @Getter String creator;
     @Getter int imageWd, imageHt;
-    @Getter short[] rawValues;
-    @Getter int[][] paletteData;
-    @Getter List<FlirFormat.FlirRecord.FlirProperty<?>> properties = new ArrayList<>();
+    short[] rawValues;
+    int[][] paletteData;
     private transient FlirToolkit toolkit;
+    // Property values by ordinal (numbers in values - floats as their bits, strings & colors in objects)
+    private final transient int[] values = new int[FlirFormat.FlirRecord.PROPERTIES.size()];
+    private final transient Object[] objects = new Object[FlirFormat.FlirRecord.PROPERTIES.size()];
+    private final transient boolean[] present = new boolean[FlirFormat.FlirRecord.PROPERTIES.size()];
+    private transient ByteBuffer rawRecord, paletteRecord;
+    transient int rawSubType = -1;
+    private transient ShortBuffer rawBuffer;                            // Off heap raw values (see store())
+    private static final short[] NONE = new short[0];
+    private static final ThreadLocal<short[]> scratch = ThreadLocal.withInitial(() -> NONE);   // Rows / runs copied out of off heap values
+
+    /**
+     * Visits the raw values a row at a time.
+     */
+    @FunctionalInterface
+    static interface RowVisitor {
+
+        /**
+         * @param y row
+         * @param raw values (the row is the image width from the offset)
+         * @param offset of the row
+         */
+        void row(int y, short[] raw, int offset);
+    }
+
+    /**
+     * Visits the raw values in runs (of any length).
+     */
+    @FunctionalInterface
+    static interface RunVisitor {
+
+        /**
+         * @param raw values
+         * @param offset of the run in raw
+         * @param index of the first value of the run (in the image)
+         * @param length of the run
+         */
+        void run(short[] raw, int offset, int index, int length);
+    }
+
+    /**
+     * The raw values (decoded from the raw record on first use) - the same array on every call, changes to it
+     * are seen by the toolkit.
+     * 
+     * <b>Off heap images (see {@link #store(RawStore)}) are moved back onto the heap</b> (once - the off heap 
+     * buffer is released) so the contract is the same for both - read them in place with {@link #getRawBuffer()} 
+     * to keep them off heap.
+     * 
+     * @return unsigned 16bit raw values (or null if only the metadata was read)
+     */
+    public synchronized short[] getRawValues() {
+        if (rawBuffer != null) {
+            short[] values = new short[rawBuffer.capacity()];
+            rawBuffer.get(0, values);
+            rawValues = values;
+            rawBuffer = null;
+            return values;
+        }
+        if (rawValues == null && rawRecord != null) {
+            try {
+                decodeRaw(null);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not decode raw record.", e);
+            }
+        }
+        return rawValues;
+    }
+
+    /**
+     * The raw values in place (on or off heap).
+     * 
+     * @return a read only buffer of the unsigned 16bit raw values (or null if only the metadata was read)
+     */
+    public ShortBuffer getRawBuffer() {
+        ShortBuffer raw = rawView();
+        return raw == null ? null : raw.asReadOnlyBuffer();
+    }
+
+    /**
+     * Moves the raw values into a store (off the heap) - the heap array is released. Raw values that have not
+     * been decoded yet (little / big endian) are copied straight from the raw record. Accessors and the toolkit
+     * work the same for heap and off heap images.
+     * 
+     * @param store for the raw values (eg: {@link RawStore#direct()})
+     * @return this image
+     */
+    public synchronized FlirImage store(RawStore store) {
+        if (rawBuffer != null || (rawValues == null && rawRecord == null)) {
+            return this;
+        }
+        if (rawValues == null && rawSubType != FlirFormat.FlirRecord.Type.SubType.PNG) {
+            int rawOff = FlirFormat.FlirRecord.Raw.Index.DATA, length = (rawRecord.capacity() - rawOff) / 2;
+            ShortBuffer buffer = store.allocate(length);
+            buffer.put(0, rawRecord.slice(rawOff, length * 2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer(), 0, length);
+            rawBuffer = buffer;
+            rawRecord = null;
+        } else {
+            short[] values = getRawValues();
+            ShortBuffer buffer = store.allocate(values.length);
+            buffer.put(0, values);
+            rawBuffer = buffer;
+            rawValues = null;
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the raw values are stored off heap
+     */
+    public synchronized boolean isOffHeap() {
+        return rawBuffer != null;
+    }
+
+    /**
+     * The raw values (decoded if needed) as a buffer - the heap array wrapped or the off heap buffer.
+     */
+    synchronized ShortBuffer rawView() {
+        if (rawBuffer != null) {
+            return rawBuffer.duplicate();
+        }
+        short[] values = getRawValues();
+        return values == null ? null : ShortBuffer.wrap(values);
+    }
+
+    /**
+     * @return the number of raw values (decoded if needed)
+     */
+    synchronized int rawLength() {
+        if (rawBuffer != null) {
+            return rawBuffer.capacity();
+        }
+        short[] values = getRawValues();
+        return values == null ? 0 : values.length;
+    }
+
+    /**
+     * Visits the raw values a row at a time - rows of the heap array in place, or copied out of the off heap 
+     * buffer.
+     * 
+     * @param visitor for each row
+     */
+    void forEachRow(RowVisitor visitor) {
+        ShortBuffer buffer;
+        short[] values;
+        synchronized (this) {
+            values = (buffer = rawBuffer) == null ? getRawValues() : null;
+        }
+        if (values != null) {
+            for (int y = 0, offset = 0; y < imageHt; y++, offset += imageWd) {
+                visitor.row(y, values, offset);
+            }
+        } else if (buffer != null) {
+            short[] row = takeScratch(imageWd);
+            try {
+                for (int y = 0; y < imageHt; y++) {
+                    buffer.get(y * imageWd, row, 0, imageWd);
+                    visitor.row(y, row, 0);
+                }
+            } finally {
+                scratch.set(row);
+            }
+        }
+    }
+
+    /**
+     * Visits every raw value in runs - a single run of the heap array, or runs copied out of the off heap 
+     * buffer.
+     * 
+     * @param visitor for each run
+     */
+    void forEachRun(RunVisitor visitor) {
+        ShortBuffer buffer;
+        short[] values;
+        synchronized (this) {
+            values = (buffer = rawBuffer) == null ? getRawValues() : null;
+        }
+        if (values != null) {
+            visitor.run(values, 0, 0, values.length);
+        } else if (buffer != null) {
+            short[] run = takeScratch(Math.min(0x2000, buffer.capacity()));
+            try {
+                for (int index = 0, length; index < buffer.capacity(); index += length) {
+                    buffer.get(index, run, 0, length = Math.min(run.length, buffer.capacity() - index));
+                    visitor.run(run, 0, index, length);
+                }
+            } finally {
+                scratch.set(run);
+            }
+        }
+    }
+
+    /**
+     * Takes the (per thread) scratch array - of at least the length, returned to the thread when the visit ends
+     * (a visit nested in a visitor gets an array of its own).
+     */
+    private static short[] takeScratch(int length) {
+        short[] values = scratch.get();
+        scratch.set(NONE);
+        return values.length < length ? new short[length] : values;
+    }
+
+    /**
+     * The embedded palette as YCbCr triplets (decoded from the palette record on first use).
+     * 
+     * @return palette data (or null if only the metadata was read)
+     */
+    public synchronized int[][] getPaletteData() {
+        if (paletteData == null && paletteRecord != null) {
+            decodePalette();
+        }
+        return paletteData;
+    }
+
+    /**
+     * An estimate of the heap used by this image in bytes - the properties, decoded raw values and palette 
+     * (and the derived products the toolkit currently holds). Not synchronized - it is only an estimate.
+     * 
+     * @return size in bytes
+     */
+    long footprint() {
+        long bytes = 64 + 3 * 16 + values.length * 9L;                  // Object, slot arrays (int, reference & boolean per property)
+        for (Object o : objects) {
+            if (o instanceof String str) {
+                bytes += 40 + str.length();
+            } else if (o instanceof Integer[] color) {
+                bytes += 16 + color.length * 20L;
+            }
+        }
+        if (rawValues != null) {
+            bytes += 16 + rawValues.length * 2L;                        // (Off heap values are not counted)
+        }
+        if (paletteData != null) {
+            bytes += 16 + paletteData.length * 36L;                     // Reference & int[3] per color
+        }
+        return toolkit == null ? bytes : bytes + toolkit.footprint();
+    }
 
     public FlirToolkit getToolkit() {
         return this.toolkit == null? toolkit = new FlirToolkit(this):toolkit;
@@ -38,45 +272,188 @@ public class FlirImage {
 
     @SuppressWarnings("unchecked")
     public <T> T getProperty(FlirProperty<T> p) throws NoSuchElementException {
-        return (T) properties.stream().filter(fp -> fp.key.equals(p.key) ).findFirst().get().getValue();
+        int o = ordinalOf(p);
+        return (T) switch (p.getType()) {
+            case FLOAT -> Float.valueOf(Float.intBitsToFloat(values[o]));
+            case INT32, INT16S, INT16U, BYTE1 -> Integer.valueOf(values[o]);
+            default -> objects[o];
+        };
     }
 
-    public static FlirImage fromJPG(InputStream is) throws IOException, FlirImageException { 
-        ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
-        if (reader == null) throw new IOException("No JPEG file reader found (system configuration error).");
-        //
-        ByteArrayOutputStream fff = new ByteArrayOutputStream();byte[] tmp;
-        try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
-            reader.setInput(iis, true, false);
-            NodeList nodes = ((IIOMetadataNode) ((IIOMetadataNode) reader.getImageMetadata(0).getAsTree("javax_imageio_jpeg_image_1.0")).getElementsByTagName("markerSequence").item(0)).getElementsByTagName("unknown");
-            for (int i = 0; i < nodes.getLength(); i++) {
-                if (((IIOMetadataNode) nodes.item(i)).getAttribute("MarkerTag").matches("APP1|225")) {
-                    // TODO: look for an index to ensure these are in order.
-                    tmp = (byte[]) ((IIOMetadataNode) nodes.item(i)).getUserObject();
-                    if ( tmp != null && tmp.length >= 4 && "FLIR".equals(new String(tmp, 0, 4))) {
-                        fff.write(tmp, FlirFormat.ThermalJpeg.Index.APP1HEADER, tmp.length - FlirFormat.ThermalJpeg.Index.APP1HEADER);
-                    }
-                }
+    /**
+     * The value of a float property (without boxing).
+     * 
+     * @param p property
+     * @return the value
+     */
+    public float getFloat(FlirProperty<Float> p) throws NoSuchElementException {
+        return Float.intBitsToFloat(values[ordinalOf(p)]);
+    }
+
+    /**
+     * The value of an integer property (without boxing).
+     * 
+     * @param p property
+     * @return the value
+     */
+    public int getInt(FlirProperty<Integer> p) throws NoSuchElementException {
+        return values[ordinalOf(p)];
+    }
+
+    /**
+     * @param p property
+     * @return true if the record containing the property was present in the file
+     */
+    public boolean hasProperty(FlirProperty<?> p) {
+        int o = schemaOrdinal(p);
+        return o >= 0 && present[o];
+    }
+
+    private int ordinalOf(FlirProperty<?> p) throws NoSuchElementException {
+        int o = schemaOrdinal(p);
+        if (o < 0 || !present[o]) {
+            throw new NoSuchElementException("No value present for " + p.getKey());
+        }
+        return o;
+    }
+
+    /**
+     * The ordinal of the property - properties not from the schema (without an ordinal) are matched by key 
+     * and type.
+     * 
+     * @return the ordinal (or -1 if the property is not in the schema)
+     */
+    private static int schemaOrdinal(FlirProperty<?> p) {
+        int o = p.getOrdinal();
+        if (o >= 0 && o < FlirFormat.FlirRecord.PROPERTIES.size()) {
+            return o;
+        }
+        for (FlirProperty<?> property : FlirFormat.FlirRecord.PROPERTIES) {
+            if (property.getKey().equals(p.getKey()) && property.getType() == p.getType()) {
+                return property.getOrdinal();
             }
-        } catch (IOException e) {
-            throw e; 
         }
-        if ( fff.size() == 0 ) {
-            throw new FlirImageException("No thermal data present in file.");
+        return -1;
+    }
+
+    /**
+     * The properties (with values) of every record in the file.
+     * 
+     * @return a list of properties in schema order
+     */
+    public List<FlirProperty<?>> getProperties() {
+        List<FlirProperty<?>> properties = new ArrayList<>();
+        for (FlirProperty<?> p : FlirFormat.FlirRecord.PROPERTIES) {
+            if (present[p.getOrdinal()]) {
+                FlirProperty<?> property = p.clone();
+                property.setValue(getProperty(p));
+                properties.add(property);
+            }
         }
-        return fromFFF((new ByteArrayInputStream(fff.toByteArray())));
+        return properties;
+    }
+
+    /**
+     * Read a thermal JPEG from a stream. Only the JPEG segment headers and the FLIR APP1 segments are 
+     * read - the stream is not read past the start of scan. The raw and palette records are copied out of
+     * the FFF content so the rest of it (eg: the embedded visual image) is not held by the image.
+     * 
+     * @param is JPEG stream
+     * @return the parsed image
+     */
+    public static FlirImage fromJPG(InputStream is) throws IOException, FlirImageException { 
+        return parse(ThermalJpegScanner.scan(is), false, true);
     }
-    
+
+    /**
+     * Read a FFF file or thermal JPEG from the file system. The file is memory mapped and the records 
+     * are parsed in place.
+     * 
+     * @param path of the FFF or JPEG file
+     * @return the parsed image
+     */
+    public static FlirImage fromPath(Path path) throws IOException, FlirImageException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fromChannel(channel);
+        }
+    }
+
+    /**
+     * Read a FFF file or thermal JPEG from a channel (the format is detected from the content). The 
+     * channel is memory mapped and the records are parsed in place - the only copy made is of 
+     * the raw values. The mapping remains valid after the channel is closed.
+     * 
+     * @param channel of the FFF or JPEG content
+     * @return the parsed image
+     */
+    public static FlirImage fromChannel(FileChannel channel) throws IOException, FlirImageException {
+        return fromFFF(map(channel));
+    }
+
+    /**
+     * Maps the channel - returning the FFF content (from the APP1 segments if the content is a JPEG).
+     */
+    private static ByteBuffer map(FileChannel channel) throws IOException, FlirImageException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new FlirImageException("Content is too large to map (" + channel.size() + " bytes).");
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.capacity() >= 2 && (buffer.get(0) & 0xff) == 0xff && (buffer.get(1) & 0xff) == FlirFormat.ThermalJpeg.Marker.SOI) {
+            return ThermalJpegScanner.scan(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Read FFF content from a stream (the stream is closed). The raw and palette records are copied out of
+     * the content so the rest of it is not held by the image.
+     * 
+     * @param is FFF stream
+     * @return the parsed image
+     */
     public static FlirImage fromFFF(InputStream is) throws IOException, FlirImageException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        {
-            byte[] b = new byte[1024 * 8];int len;
-            while ((len = is.read(b)) > 0) { os.write(b, 0, len); }
-            os.flush();
-            is.close();
-            os.close();
-        }
-        ByteBuffer buffer = ByteBuffer.wrap(os.toByteArray());
+        try (is) {
+            return parse(ByteBuffer.wrap(is.readAllBytes()), false, true);
+        }
+    }
+
+    /**
+     * Parse FFF content from a buffer (from position 0). Records are read in place using slices of the 
+     * buffer.
+     * 
+     * @param buffer containing the FFF content
+     * @return the parsed image
+     */
+    public static FlirImage fromFFF(ByteBuffer buffer) throws FlirImageException {
+        return parse(buffer, false, false);
+    }
+
+    /**
+     * Read only the metadata (creator, properties and dimensions) of a FFF file or thermal JPEG. The raw 
+     * and palette records are never decoded - {@link #getRawValues()} and {@link #getPaletteData()} return 
+     * null for these images.
+     * 
+     * @param path of the FFF or JPEG file
+     * @return the image metadata
+     */
+    public static FlirImage readMetadata(Path path) throws IOException, FlirImageException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return parse(map(channel), true, false);
+        }
+    }
+
+    /**
+     * Parses the FFF content - the raw and palette records are kept as slices of the buffer (until they are
+     * decoded) or, when copy is set, as right sized copies (so the buffer is not held by the image).
+     */
+    private static FlirImage parse(ByteBuffer buffer, boolean metadataOnly, boolean copy) throws FlirImageException {
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.PARSE)) {
+            return parse(buffer, metadataOnly, copy, span);
+        }
+    }
+
+    private static FlirImage parse(ByteBuffer buffer, boolean metadataOnly, boolean copy, FlirMetrics.Span span) throws FlirImageException {
+        buffer = buffer.slice(0, buffer.limit()).order(ByteOrder.BIG_ENDIAN);
         // Check this is a valid file (because of the header)
         if (!FlirFormat.Header.FORMAT.equals(StandardCharsets.UTF_8.decode(buffer.slice(0, FlirFormat.Header.FORMAT.length())).toString())) {
             throw new FlirImageException("Content does not appear to be a valid FFF based on the header.");
@@ -89,13 +466,14 @@ public class FlirImage {
         int start = buffer.getInt(FlirFormat.Header.Index.RECORD_OFFSET);
         int count = buffer.getInt(FlirFormat.Header.Index.RECORD_NUMBER);
 
-        int recordType, recordSub, recordOff, recordLen;
+        int recordType, recordSub, recordOff, recordLen, records = 0, subType = -1;
         ByteBuffer recordHeader,recordContent;
         for (int i=0; i<count; i++) {
             recordHeader = buffer.slice(start + (i * FlirFormat.FlirRecord.LENGTH), FlirFormat.FlirRecord.LENGTH);
             if ((recordType = recordHeader.getShort(0)) == FlirFormat.FlirRecord.Type.EMPTY) {
                 continue; // Record is empty
             }
+            records++;
             recordSub = recordHeader.getShort(FlirFormat.FlirRecord.Index.SUB_TYPE);
             recordOff = recordHeader.getInt(FlirFormat.FlirRecord.Index.OFFSET);
             recordLen = recordHeader.getInt(FlirFormat.FlirRecord.Index.LENGTH);
@@ -103,107 +481,136 @@ public class FlirImage {
             /**
              * Sections that have properties.
              */
-            if (
-                recordType == FlirFormat.FlirRecord.Type.PALETTE || 
-                recordType == FlirFormat.FlirRecord.Type.CAMERA ||
-                recordType == FlirFormat.FlirRecord.Type.PIP
-                ) {
+            FlirFormat.FlirRecord.Schema schema = FlirFormat.FlirRecord.schemaOf(recordType);
+            if (schema != null) {
                 recordContent = buffer.slice(recordOff, recordLen).order(ByteOrder.LITTLE_ENDIAN);
-                List<FlirProperty<?>> properties;
-                switch (recordType) {
-                    case FlirFormat.FlirRecord.Type.PALETTE:
-                        properties = FlirFormat.FlirRecord.Palette.allProperties();
-                        break;
-                    case FlirFormat.FlirRecord.Type.CAMERA:
-                        properties = FlirFormat.FlirRecord.Camera.allProperties();
-                        break;
-                    case FlirFormat.FlirRecord.Type.PIP:
-                        properties = FlirFormat.FlirRecord.Pip.allProperties();
-                        break;
-                    default:
-                        properties = new ArrayList<>();
-                }
-                
-                for (FlirProperty<?> property: properties) {
+                for (FlirProperty<?> property: schema.getProperties()) {
+                    int o = property.getOrdinal();
+                    if (image.present[o]) {
+                        continue; // The first record wins
+                    }
+                    image.present[o] = true;
                     switch ( property.getType() ) {
                         case FlirProperty.Type.STR16:
-                            property.setValue(StandardCharsets.UTF_8.decode(recordContent.slice(property.getIndex(), 16)).toString().trim());
+                            image.objects[o] = StandardCharsets.UTF_8.decode(recordContent.slice(property.getIndex(), 16)).toString().trim();
                             break;
                         case FlirProperty.Type.STR32:
-                            property.setValue(StandardCharsets.UTF_8.decode(recordContent.slice(property.getIndex(), 32)).toString().trim());
+                            image.objects[o] = StandardCharsets.UTF_8.decode(recordContent.slice(property.getIndex(), 32)).toString().trim();
                             break;
                         case FlirProperty.Type.FLOAT:
-                            property.setValue(recordContent.getFloat(property.getIndex()));
-                            break;
                         case FlirProperty.Type.INT32:
-                            property.setValue(recordContent.getInt(property.getIndex()));
+                            image.values[o] = recordContent.getInt(property.getIndex()); // Floats are stored as their bits
                             break;
                         case FlirProperty.Type.INT16S:
-                            property.setValue(recordContent.getShort(property.getIndex()));
+                            image.values[o] = recordContent.getShort(property.getIndex());
                             break;
                         case FlirProperty.Type.INT16U:
-                            property.setValue(Short.toUnsignedInt(recordContent.getShort(property.getIndex())));
+                            image.values[o] = Short.toUnsignedInt(recordContent.getShort(property.getIndex()));
                             break;
                         case FlirProperty.Type.BYTE1:
-                            property.setValue(Integer.valueOf(recordContent.get(property.getIndex())));
+                            image.values[o] = recordContent.get(property.getIndex());
                             break;
                         case FlirProperty.Type.COLOR:
-                            property.setValue(new Integer[] {
+                            image.objects[o] = new Integer[] {
                                 recordContent.get(property.getIndex() + 0) & 0xff,
                                 recordContent.get(property.getIndex() + 1) & 0xff, 
                                 recordContent.get(property.getIndex() + 2) & 0xff
-                            });
+                            };
                             break;
                         default:
                     }
                 }
-                image.properties.addAll(properties);
                 /*
-                * Palette - the color data (of the built in palette)
+                * Palette - the color data (of the built in palette) is decoded on first use
                 */
-                if (recordType == FlirFormat.FlirRecord.Type.PALETTE ) {
-                    image.paletteData = new int[recordContent.getInt(FlirFormat.FlirRecord.Palette.Index.COLORS)][];
-                    for(int n = 0; n < image.paletteData.length; n++){
-                        image.paletteData[n] = new int[] {
-                            recordContent.get(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 0) & 0xff,
-                            recordContent.get(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 1) & 0xff,
-                            recordContent.get(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 2) & 0xff};
-                    }
+                if (recordType == FlirFormat.FlirRecord.Type.PALETTE && !metadataOnly) {
+                    image.paletteRecord = copy ? copyOf(recordContent) : recordContent;
                 }
             }
             /*
-             * RAW DATA
+             * RAW DATA - only the dimensions are read here, the values are decoded on first use
              */
             if (recordType == FlirFormat.FlirRecord.Type.RAW) {
                 if (recordSub == FlirFormat.FlirRecord.Type.SubType.PNG) {
-                    // Values are stored as a PNG
+                    // Values are stored as a PNG (the dimensions are read from the IHDR chunk)
                     recordContent = buffer.slice(recordOff, recordLen).order(ByteOrder.BIG_ENDIAN);
-                    int rawOff = FlirFormat.FlirRecord.Raw.Index.DATA;
-                    int rawLen = (recordContent.capacity() - rawOff);
-                    byte[] raw = new byte[rawLen];
-                    recordContent.slice(rawOff, rawLen).get(raw);
-                    BufferedImage png = ImageIO.read(new ByteArrayInputStream(raw));
-                    image.imageWd = png.getWidth();
-                    image.imageHt = png.getHeight();
-                    //Image is of type BufferedImage.TYPE_USHORT_GRAY
-                    short[] dat = ((DataBufferUShort) png.getRaster().getDataBuffer()).getData();
-                    image.rawValues = new short[dat.length];
-                    IntStream.range(0, dat.length).forEach(n -> image.rawValues[n] = Short.reverseBytes(dat[n]));
+                    image.imageWd = recordContent.getInt(FlirFormat.FlirRecord.Raw.Index.DATA + FlirFormat.FlirRecord.Raw.Index.PNG_WIDTH);
+                    image.imageHt = recordContent.getInt(FlirFormat.FlirRecord.Raw.Index.DATA + FlirFormat.FlirRecord.Raw.Index.PNG_HEIGHT);
                 } else {
                     // Little or Big Endian
                     recordContent = buffer.slice(recordOff, recordLen).order(recordSub == FlirFormat.FlirRecord.Type.SubType.LE?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
                     image.imageWd = recordContent.getShort(FlirFormat.FlirRecord.Raw.Index.WIDTH);
                     image.imageHt = recordContent.getShort(FlirFormat.FlirRecord.Raw.Index.HEIGHT);
-                    //
-                    int rawOff = FlirFormat.FlirRecord.Raw.Index.DATA;
-                    int rawLen = (recordContent.capacity() - rawOff);
-                    recordContent.slice(rawOff, rawLen).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(image.rawValues = new short[rawLen / 2]);
+                }
+                subType = recordSub;
+                if (!metadataOnly) {
+                    image.rawRecord = copy ? copyOf(recordContent) : recordContent;
+                    image.rawSubType = recordSub;
                 }
             }
         }
+        span.bytes(buffer.limit()).records(records).frame(image.imageWd, image.imageHt, subType);
         return image;
     }
 
+    private static ByteBuffer copyOf(ByteBuffer record) {
+        return ByteBuffer.allocate(record.capacity()).put(0, record, 0, record.capacity()).order(record.order());
+    }
+
+    /**
+     * Decodes the raw values - into the buffer when it is the right length (so sequences can reuse a 
+     * buffer between frames).
+     * 
+     * @param buffer to decode into (or null)
+     * @return the raw values
+     */
+    synchronized short[] decodeRaw(short[] buffer) throws IOException {
+        if (rawRecord == null) {
+            return rawValues;
+        }
+        int rawOff = FlirFormat.FlirRecord.Raw.Index.DATA;
+        int rawLen = (rawRecord.capacity() - rawOff);
+        try (FlirMetrics.Span span = FlirMetrics.start(rawSubType == FlirFormat.FlirRecord.Type.SubType.PNG ? FlirMetrics.Stage.INFLATE : FlirMetrics.Stage.DECODE)) {
+            span.bytes(rawLen).records(1).frame(this);
+            decodeRaw(buffer, rawOff, rawLen);
+        }
+        rawRecord = null;
+        return rawValues;
+    }
+
+    private void decodeRaw(short[] buffer, int rawOff, int rawLen) throws IOException {
+        if (rawSubType == FlirFormat.FlirRecord.Type.SubType.PNG && (rawValues = RawPngDecoder.decode(rawRecord.slice(rawOff, rawLen), buffer)) != null) {
+            // Decoded directly (16bit grayscale)
+        } else if (rawSubType == FlirFormat.FlirRecord.Type.SubType.PNG) {
+            // Any other PNG
+            byte[] raw = new byte[rawLen];
+            rawRecord.slice(rawOff, rawLen).get(raw);
+            BufferedImage png = ImageIO.read(new ByteArrayInputStream(raw));
+            //Image is of type BufferedImage.TYPE_USHORT_GRAY
+            short[] dat = ((DataBufferUShort) png.getRaster().getDataBuffer()).getData();
+            short[] values = buffer != null && buffer.length == dat.length ? buffer : new short[dat.length];
+            IntStream.range(0, dat.length).forEach(n -> values[n] = Short.reverseBytes(dat[n]));
+            rawValues = values;
+        } else {
+            short[] values = buffer != null && buffer.length == rawLen / 2 ? buffer : new short[rawLen / 2];
+            rawRecord.slice(rawOff, rawLen).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(rawValues = values);
+        }
+    }
+
+    private void decodePalette() {
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.PALETTE)) {
+            paletteData = new int[paletteRecord.getInt(FlirFormat.FlirRecord.Palette.Index.COLORS)][];
+            for(int n = 0; n < paletteData.length; n++){
+                paletteData[n] = new int[] {
+                    paletteRecord.get(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 0) & 0xff,
+                    paletteRecord.get(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 1) & 0xff,
+                    paletteRecord.get(FlirFormat.FlirRecord.Palette.Index.DATA + (n * 3) + 2) & 0xff};
+            }
+            span.bytes(paletteData.length * 3L).records(1);
+        }
+        paletteRecord = null;
+    }
+
     public static class FlirImageException extends Exception {
 
         FlirImageException(String message) {
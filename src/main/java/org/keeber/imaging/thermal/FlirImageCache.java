@@ -0,0 +1,222 @@
+package org.keeber.imaging.thermal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.keeber.imaging.thermal.FlirImage.FlirImageException;
+
+/**
+ * A cache of parsed images - keyed by file (path, size and last modified time, so a changed file is
+ * reloaded). Entries are weighed by their heap footprint (raw values, palette, properties and the derived
+ * products of the toolkit) and the least recently used are evicted to stay within a byte budget.
+ *
+ * Concurrent requests for the same file share a single load. Images are fully decoded when loaded (so the
+ * file is not mapped while cached) - they are shared between callers and should be treated as read only.
+ */
+public class FlirImageCache {
+    private final long maxBytes;
+    private final Object lock = new Object();
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<FlirImage>> loading = new HashMap<>();
+    private long bytes, hits, misses, evictions;
+
+    private static record Key(Path path, long size, long modified) {}
+
+    private static class Entry {
+        private final Key key;
+        private final FlirImage image;
+        private long weight;
+
+        private Entry(Key key, FlirImage image) {
+            this.key = key;
+            this.image = image;
+            this.weight = image.footprint();
+        }
+    }
+
+    /**
+     * @param maxBytes the (heap) budget of the cached images
+     */
+    public FlirImageCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The image of a FFF file or thermal JPEG - from the cache if the file has not changed since it was
+     * loaded (otherwise the file is loaded, or the pending load of another caller is waited on).
+     *
+     * @param path of the FFF or JPEG file
+     * @return the parsed (and decoded) image
+     */
+    public FlirImage get(Path path) throws IOException, FlirImageException {
+        path = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Key key = new Key(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+        CompletableFuture<FlirImage> future;
+        boolean owner = false;
+        synchronized (lock) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.key.equals(key)) {
+                hits++;
+                // Re-weigh (the toolkit may hold more derived products since)
+                bytes -= entry.weight;
+                bytes += entry.weight = entry.image.footprint();
+                evict();
+                return entry.image;
+            }
+            if (entry != null) {
+                bytes -= entries.remove(path).weight; // Stale
+            }
+            if ((future = loading.get(key)) == null) {
+                loading.put(key, future = new CompletableFuture<>());
+                owner = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (owner) {
+            return load(key, future);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + path + ".", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof FlirImageException cause) {
+                throw cause;
+            }
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private FlirImage load(Key key, CompletableFuture<FlirImage> future) throws IOException, FlirImageException {
+        FlirImage image = null;
+        try {
+            image = FlirImage.fromPath(key.path());
+            image.rawLength(); // Decodes the raw values (without a copy)
+            image.getPaletteData();
+            future.complete(image);
+            return image;
+        } catch (UncheckedIOException e) {
+            future.completeExceptionally(e.getCause());
+            throw e.getCause();
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (lock) {
+                loading.remove(key);
+                if (image != null) {
+                    Entry entry = new Entry(key, image);
+                    Entry previous = entries.put(key.path(), entry);
+                    bytes += entry.weight - (previous == null ? 0 : previous.weight);
+                    evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is within its budget (under the lock).
+     */
+    private void evict() {
+        for (Iterator<Entry> it = entries.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            bytes -= it.next().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @param path of the file to remove from the cache
+     */
+    public void invalidate(Path path) {
+        synchronized (lock) {
+            Entry entry = entries.remove(path.toAbsolutePath().normalize());
+            if (entry != null) {
+                bytes -= entry.weight;
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of cached images
+     */
+    public int getCount() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the (estimated) size of the cached images in bytes
+     */
+    public long getBytes() {
+        synchronized (lock) {
+            return bytes;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of requests served from the cache (or a load pending for another caller)
+     */
+    public long getHits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of requests that loaded the file
+     */
+    public long getMisses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return the number of images evicted to stay within the budget
+     */
+    public long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return entries.size() + " images, " + bytes + "/" + maxBytes + " bytes, " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+        }
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.keeber.imaging.thermal;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Instrumentation of the parse and render stages - each stage reports a {@link Sample} (timing, bytes read,
+ * record count, frame dimensions and raw subtype) to the registered {@link Listener}s and commits a JDK Flight
+ * Recorder event (in the `FLIR` category) when the event is enabled in a recording.
+ *
+ * When there are no listeners and Flight Recorder has not been started a stage is a single check - and when a
+ * recording does not enable the event it is a check of a (cached) event per stage. Nothing is timed or allocated
+ * unless a listener or recording receives the stage.
+ */
+public final class FlirMetrics {
+    static final Logger logger = Logger.getLogger(FlirMetrics.class.getName());
+    private static volatile Listener[] listeners = new Listener[0];
+
+    private FlirMetrics() {}
+
+    /**
+     * The instrumented stages.
+     */
+    public static enum Stage {
+        /** Scanning the JPEG markers for the FFF content. */
+        SCAN,
+        /** Parsing the FFF records (properties and dimensions). */
+        PARSE,
+        /** Decoding little / big endian raw values. */
+        DECODE,
+        /** Inflating PNG raw values. */
+        INFLATE,
+        /** Decoding the embedded palette. */
+        PALETTE,
+        /** Converting raw values to temperatures. */
+        TEMPERATURE,
+        /** Rendering raw values to colors. */
+        RENDER,
+        /** Encoding a rendered image (eg: PNG). */
+        ENCODE;
+
+        private StageEvent probe;   // Only asked if it is enabled (racy - any instance will do)
+
+        private boolean recorded() {
+            StageEvent p = probe;
+            if (p == null) {
+                probe = p = event();
+            }
+            return p.isEnabled();
+        }
+
+        private StageEvent event() {
+            return switch (this) {
+                case SCAN -> new ScanEvent();
+                case PARSE -> new ParseEvent();
+                case DECODE, INFLATE -> new DecodeEvent();
+                case PALETTE -> new PaletteEvent();
+                case TEMPERATURE -> new TemperatureEvent();
+                case RENDER -> new RenderEvent();
+                case ENCODE -> new EncodeEvent();
+            };
+        }
+    }
+
+    /**
+     * A completed stage.
+     *
+     * @param stage completed
+     * @param nanos duration of the stage
+     * @param bytes read by the stage - or written, by an encode (0 if not known)
+     * @param records FFF records (or JPEG segments) read by the stage (0 if not known)
+     * @param width of the frame (0 if not known)
+     * @param height of the frame (0 if not known)
+     * @param subType of the raw record (-1 if not known)
+     */
+    public static record Sample(Stage stage, long nanos, long bytes, int records, int width, int height, int subType) {}
+
+    /**
+     * Receives the completed stages - called on the thread that ran the stage so implementations should be
+     * quick and thread safe (eg: recording into a histogram).
+     */
+    @FunctionalInterface
+    public static interface Listener {
+
+        /**
+         * @param sample of the completed stage
+         */
+        void stage(Sample sample);
+    }
+
+    /**
+     * Registers a listener for every stage.
+     *
+     * @param listener to add
+     */
+    public static synchronized void addListener(Listener listener) {
+        Listener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+        l[l.length - 1] = listener;
+        listeners = l;
+    }
+
+    /**
+     * @param listener to remove
+     */
+    public static synchronized void removeListener(Listener listener) {
+        listeners = Arrays.stream(listeners).filter(l -> l != listener).toArray(Listener[]::new);
+    }
+
+    /**
+     * Starts a stage - to be closed when the stage completes.
+     *
+     * @param stage starting
+     * @return the span of the stage (a no-op when nothing is listening)
+     */
+    static Span start(Stage stage) {
+        Listener[] l = listeners;
+        if (l.length == 0 && !FlightRecorder.isInitialized()) {
+            return Span.NONE;
+        }
+        boolean recorded = stage.recorded();
+        if (l.length == 0 && !recorded) {
+            return Span.NONE;
+        }
+        return new Span(stage, l, recorded ? stage.event() : null);
+    }
+
+    /**
+     * A running stage - the details are set as they are known and reported on close.
+     */
+    static class Span implements AutoCloseable {
+        static final Span NONE = new Span(null, null, null) {
+            @Override Span bytes(long bytes) { return this; }
+            @Override Span records(int records) { return this; }
+            @Override Span frame(int width, int height, int subType) { return this; }
+            @Override Span frame(FlirImage flir) { return this; }
+            @Override public void close() {}
+        };
+
+        private final Stage stage;
+        private final Listener[] listeners;
+        private final StageEvent event;
+        private final long start = System.nanoTime();
+        private long bytes;
+        private int records, width, height, subType = -1;
+
+        private Span(Stage stage, Listener[] listeners, StageEvent event) {
+            this.stage = stage;
+            this.listeners = listeners;
+            this.event = event;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        Span bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        Span records(int records) {
+            this.records = records;
+            return this;
+        }
+
+        Span frame(int width, int height, int subType) {
+            this.width = width;
+            this.height = height;
+            this.subType = subType;
+            return this;
+        }
+
+        Span frame(FlirImage flir) {
+            return frame(flir.imageWd, flir.imageHt, flir.rawSubType);
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = stage.name();
+                    event.bytes = bytes;
+                    event.records = records;
+                    event.width = width;
+                    event.height = height;
+                    event.subType = subType;
+                    event.commit();
+                }
+            }
+            if (listeners.length > 0) {
+                Sample sample = new Sample(stage, nanos, bytes, records, width, height, subType);
+                for (Listener listener : listeners) {
+                    try {
+                        listener.stage(sample);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Metrics listener failed.", e);
+                    }
+                }
+            }
+        }
+    }
+
+    @Category({"FLIR", "Imaging"})
+    abstract static class StageEvent extends Event {
+        @Label("Stage") String stage;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Records") int records;
+        @Label("Width") int width;
+        @Label("Height") int height;
+        @Label("Raw Subtype") int subType;
+    }
+
+    @Name("org.keeber.imaging.thermal.Scan") @Label("FLIR JPEG Scan")
+    @Description("Scanning the JPEG markers for the FFF content")
+    static class ScanEvent extends StageEvent {}
+
+    @Name("org.keeber.imaging.thermal.Parse") @Label("FLIR FFF Parse")
+    @Description("Parsing the FFF records")
+    static class ParseEvent extends StageEvent {}
+
+    @Name("org.keeber.imaging.thermal.Decode") @Label("FLIR Raw Decode")
+    @Description("Decoding (or inflating PNG) raw values")
+    static class DecodeEvent extends StageEvent {}
+
+    @Name("org.keeber.imaging.thermal.Palette") @Label("FLIR Palette Decode")
+    @Description("Decoding the embedded palette")
+    static class PaletteEvent extends StageEvent {}
+
+    @Name("org.keeber.imaging.thermal.Temperature") @Label("FLIR Temperature Conversion")
+    @Description("Converting raw values to temperatures")
+    static class TemperatureEvent extends StageEvent {}
+
+    @Name("org.keeber.imaging.thermal.Render") @Label("FLIR Render")
+    @Description("Rendering raw values to colors")
+    static class RenderEvent extends StageEvent {}
+
+    @Name("org.keeber.imaging.thermal.Encode") @Label("FLIR Image Encode")
+    @Description("Encoding a rendered image")
+    static class EncodeEvent extends StageEvent {}
+
+}
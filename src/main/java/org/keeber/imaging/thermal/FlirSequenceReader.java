@@ -0,0 +1,287 @@
+package org.keeber.imaging.thermal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.keeber.imaging.thermal.FlirImage.FlirImageException;
+
+/**
+ * Reads multi-frame FLIR sequences - SEQ files (and any other concatenation of FFF frames). On open the
+ * file is indexed by frame (only each frame header and record directory is read - the file is only scanned
+ * for the next frame magic where a frame does not follow the last one, eg: padding), frames are then read by
+ * number or iterated in order.
+ *
+ * The file is never loaded whole - frames are parsed in place from memory mapped windows of the file, so
+ * sequences larger than 2GB are supported.
+ *
+ * Iterating (and streaming) decodes the raw values of each frame into a reused buffer - a frame's raw values
+ * are only valid until the next frame is read by the same iterator. Frames from {@link #read(int)} are
+ * independent.
+ */
+public class FlirSequenceReader implements AutoCloseable, Iterable<FlirImage> {
+    private static final byte[] MAGIC = FlirFormat.Header.FORMAT.getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_LENGTH = 0x40;
+    private static final long WINDOW = 64L << 20; // Mapped (per iterator) 64MB at a time
+    private final FileChannel channel;
+    private final long[] offsets, lengths;
+
+    private FlirSequenceReader(FileChannel channel) throws IOException, FlirImageException {
+        this.channel = channel;
+        long[] offsets = new long[64], lengths = new long[64];
+        int count = 0;
+        long position = 0, length;
+        ByteBuffer chunk = ByteBuffer.allocate(0x10000);
+        while (position >= 0) {
+            // Frames are usually back to back - the magic is only searched for when there is no frame at the position
+            if ((length = frameLength(position)) == 0) {
+                position = find(position + 1, chunk); // (Padding, or the magic in a payload)
+                continue;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            offsets[count] = position;
+            lengths[count++] = length;
+            position += length;
+        }
+        if (count == 0) {
+            throw new FlirImageException("Content does not appear to contain any FFF frames.");
+        }
+        this.offsets = Arrays.copyOf(offsets, count);
+        this.lengths = Arrays.copyOf(lengths, count);
+    }
+
+    /**
+     * Opens (and indexes) a sequence file.
+     *
+     * @param path of the SEQ (or FFF) file
+     * @return the reader
+     */
+    public static FlirSequenceReader open(Path path) throws IOException, FlirImageException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new FlirSequenceReader(channel);
+        } catch (IOException | FlirImageException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The offset of the next frame magic at or after the position (or -1) - read through the chunk.
+     */
+    private long find(long position, ByteBuffer chunk) throws IOException {
+        while (position + MAGIC.length <= channel.size()) {
+            chunk.clear();
+            channel.read(chunk, position);
+            chunk.flip();
+            for (int i = 0; i + MAGIC.length <= chunk.limit(); i++) {
+                if (chunk.get(i) == MAGIC[0] && chunk.get(i + 1) == MAGIC[1] && chunk.get(i + 2) == MAGIC[2] && chunk.get(i + 3) == MAGIC[3]) {
+                    return position + i;
+                }
+            }
+            position += Math.max(1, chunk.limit() - (MAGIC.length - 1));
+        }
+        return -1;
+    }
+
+    /**
+     * The length of the frame at the position - the end of its record directory or last record (or 0 if
+     * there is no frame magic at the position, or the frame is invalid or truncated).
+     */
+    private long frameLength(long position) throws IOException {
+        ByteBuffer header = read(position, HEADER_LENGTH);
+        if (header == null || !header.slice(0, MAGIC.length).equals(ByteBuffer.wrap(MAGIC))) {
+            return 0;
+        }
+        long start = Integer.toUnsignedLong(header.getInt(FlirFormat.Header.Index.RECORD_OFFSET));
+        long count = Integer.toUnsignedLong(header.getInt(FlirFormat.Header.Index.RECORD_NUMBER));
+        long end = start + count * FlirFormat.FlirRecord.LENGTH;
+        if (start < HEADER_LENGTH || end > channel.size() - position) {
+            return 0;
+        }
+        ByteBuffer directory = read(position + start, (int) (end - start));
+        if (directory == null) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int record = i * FlirFormat.FlirRecord.LENGTH;
+            if (directory.getShort(record) != FlirFormat.FlirRecord.Type.EMPTY) {
+                end = Math.max(end, Integer.toUnsignedLong(directory.getInt(record + FlirFormat.FlirRecord.Index.OFFSET))
+                    + Integer.toUnsignedLong(directory.getInt(record + FlirFormat.FlirRecord.Index.LENGTH)));
+            }
+        }
+        return end > channel.size() - position || end > Integer.MAX_VALUE ? 0 : end;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.BIG_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * @return the number of frames in the sequence
+     */
+    public int getFrameCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @param frame number (from 0)
+     * @return the offset of the frame in the file
+     */
+    public long getFrameOffset(int frame) {
+        return offsets[frame];
+    }
+
+    /**
+     * @param frame number (from 0)
+     * @return the length of the frame in bytes
+     */
+    public long getFrameLength(int frame) {
+        return lengths[frame];
+    }
+
+    /**
+     * Reads a single frame (the frame is mapped on its own and its raw values are not shared).
+     *
+     * @param frame number (from 0)
+     * @return the parsed frame
+     */
+    public FlirImage read(int frame) throws IOException, FlirImageException {
+        if (frame < 0 || frame >= offsets.length) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + offsets.length + ".");
+        }
+        return FlirImage.fromFFF(channel.map(FileChannel.MapMode.READ_ONLY, offsets[frame], lengths[frame]));
+    }
+
+    /**
+     * The frames in order - the raw values of each frame are decoded into a reused buffer (and are only
+     * valid until the next frame).
+     */
+    @Override
+    public Iterator<FlirImage> iterator() {
+        Frames frames = new Frames(0, offsets.length);
+        return new Iterator<FlirImage>() {
+
+            @Override
+            public boolean hasNext() {
+                return frames.next < frames.end;
+            }
+
+            @Override
+            public FlirImage next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return frames.read();
+            }
+        };
+    }
+
+    /**
+     * The frames in order - splits into ranges of frames (each with its own reused buffer) so the frames
+     * can be processed in parallel.
+     */
+    @Override
+    public Spliterator<FlirImage> spliterator() {
+        return new Frames(0, offsets.length);
+    }
+
+    /**
+     * @param parallel to process ranges of frames in parallel
+     * @return a stream of the frames
+     */
+    public Stream<FlirImage> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A range of frames - read through a mapped window of the file and decoded into a reused buffer.
+     */
+    private class Frames implements Spliterator<FlirImage> {
+        private int next, end;
+        private ByteBuffer window;
+        private long windowStart, windowEnd;
+        private short[] buffer;
+
+        private Frames(int next, int end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        private FlirImage read() {
+            int frame = next++;
+            long offset = offsets[frame], length = lengths[frame];
+            try {
+                if (window == null || offset < windowStart || offset + length > windowEnd) {
+                    windowStart = offset;
+                    windowEnd = Math.min(channel.size(), offset + Math.max(length, WINDOW));
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+                }
+                FlirImage image = FlirImage.fromFFF(window.slice((int) (offset - windowStart), (int) length));
+                buffer = image.decodeRaw(buffer);
+                return image;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read frame " + frame + ".", e);
+            } catch (FlirImageException e) {
+                throw new IllegalStateException("Could not parse frame " + frame + ".", e);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super FlirImage> action) {
+            if (next >= end) {
+                return false;
+            }
+            action.accept(read());
+            return true;
+        }
+
+        @Override
+        public Spliterator<FlirImage> trySplit() {
+            int mid = (next + end) >>> 1;
+            if (mid <= next) {
+                return null;
+            }
+            Frames prefix = new Frames(next, mid);
+            next = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+}
@@ -7,38 +7,139 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 
 import javax.imageio.ImageIO;
 
-import lombok.Getter;
-
+/**
+ * A lightweight view over the raw values of a {@link FlirImage} - nothing is computed until it is used. Derived 
+ * products (stats, the ROI tables, the pyramids and the default palette) are computed on first use and held softly - so they 
+ * are released under memory pressure (and recomputed if needed again).
+ */
 public class FlirToolkit {
-    private FlirImage flir;
-    @Getter private int[] data;
-    @Getter Stats stats;
+    private final FlirImage flir;
+    private final Soft<Stats> stats = new Soft<>();
+    private final Soft<Roi.Integral> integral = new Soft<>();
+    private final Soft<int[]> defaultPalette = new Soft<>();
+    private final Soft<Pyramid> minPyramid = new Soft<>(), maxPyramid = new Soft<>(), meanPyramid = new Soft<>();
+    private TemperatureLut lut;
+
+    /**
+     * A derived product - computed on first use and held by a soft reference.
+     */
+    private static class Soft<T> {
+        private SoftReference<T> reference;
 
+        private synchronized T peek() {
+            return reference == null ? null : reference.get();
+        }
+
+        private synchronized T get(Supplier<T> supplier) {
+            T value = reference == null ? null : reference.get();
+            if (value == null) {
+                reference = new SoftReference<>(value = supplier.get());
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Statistics of the raw values - backed by a (cumulative) histogram of the values between the min 
+     * and max so every statistic is exact and calculated without sorting the values.
+     */
     public static class Stats {
-        private int[] sorted;
+        private int min, max, count;
+        private double mean, standardDeviation;
+        private int[] cumulative; // Number of values <= (min + index)
 
-        private Stats(int[] stats) {
-            this.sorted = IntStream.of(stats).sorted().toArray();
+        private Stats(FlirImage flir) {
+            int[] range = {0xffff, 0}; // min, max
+            flir.forEachRun((raw, offset, index, length) -> Kernels.minMax(raw, offset, length, range));
+            this.count = flir.rawLength();
+            this.min = count == 0 ? 0 : range[0];
+            this.max = count == 0 ? 0 : range[1];
+            this.cumulative = new int[this.max - this.min + 1];
+            flir.forEachRun((raw, offset, index, length) -> Kernels.histogram(raw, offset, length, cumulative, this.min));
+            // Mean & standard deviation (population) from the histogram
+            double sum = 0, variance = 0;
+            for (int i = 0; i < cumulative.length; i++) {
+                sum += (this.min + i) * (double) cumulative[i];
+            }
+            this.mean = count == 0 ? Double.NaN : sum / count;
+            for (int i = 0; i < cumulative.length; i++) {
+                variance += cumulative[i] * ((this.min + i) - mean) * ((this.min + i) - mean);
+            }
+            this.standardDeviation = Math.sqrt(variance / count);
+            for (int i = 1; i < cumulative.length; i++) {
+                cumulative[i] += cumulative[i - 1];
+            }
         }
 
         public int getMax() {
-            return this.sorted[this.sorted.length - 1];
+            return this.max;
         }
 
         public int getMin() {
-            return this.sorted[0];
+            return this.min;
+        }
+
+        /**
+         * @return the number of values.
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return the mean of the raw values.
+         */
+        public double getMean() {
+            return this.mean;
+        }
+
+        /**
+         * @return the (population) standard deviation of the raw values.
+         */
+        public double getStandardDeviation() {
+            return this.standardDeviation;
+        }
+
+        /**
+         * The median as returned by {@link #getPercentileValue(double)} - for an even number of values this 
+         * is the lower of the middle two values.
+         * 
+         * @return the median raw value.
+         */
+        public int getMedian() {
+            return getPercentileValue(0.5);
+        }
+
+        /**
+         * The number of times the raw value occurs in the data.
+         * 
+         * @param raw value
+         * @return the frequency.
+         */
+        public int getFrequency(int raw) {
+            if (raw < min || raw > max) {
+                return 0;
+            }
+            return cumulative[raw - min] - (raw == min ? 0 : cumulative[raw - min - 1]);
         }
 
         /**
@@ -53,21 +154,88 @@ public class FlirToolkit {
         }
 
         /**
-         * The raw value from the array at the given fractional percentile.
+         * The raw value from the (sorted) values at the given fractional percentile.
          * 
          * @param percentile 0 - 1.00 (ie: 0.25 == 25%)
          * @return the int value.
          */
         public int getPercentileValue(double percentile) {
-            return this.sorted[(int) Math.floor(Math.max(0, Math.min(1, percentile)) * (sorted.length - 1))];
+            int rank = (int) Math.floor(Math.max(0, Math.min(1, percentile)) * (count - 1));
+            // First value with more than `rank` values less than or equal to it
+            int lo = 0, hi = cumulative.length - 1, mid;
+            while (lo < hi) {
+                mid = (lo + hi) >>> 1;
+                if (cumulative[mid] > rank) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return min + lo;
         }
 
     }
 
+    /**
+     * Temperature units.
+     */
+    public static enum Unit {
+        CELSIUS, FAHRENHEIT, KELVIN;
+
+        /**
+         * @param celsius temperature
+         * @return the temperature in this unit
+         */
+        public double fromCelsius(double celsius) {
+            return switch (this) {
+                case CELSIUS -> celsius;
+                case FAHRENHEIT -> celsius * (9d/5d) + 32;
+                case KELVIN -> celsius + 273.15;
+            };
+        }
+    }
+
     protected FlirToolkit(FlirImage flir) {
         this.flir = flir;
-        this.data = IntStream.range(0, this.flir.rawValues.length).map(i -> Short.toUnsignedInt(this.flir.rawValues[i])).toArray();
-        this.stats =new Stats(this.data);
+    }
+
+    /**
+     * The raw values as (unsigned) integers - this is a copy (4 bytes per value), prefer reading the raw 
+     * values directly with {@link java.lang.Short#toUnsignedInt(short)}.
+     * 
+     * @return a new array of the unsigned raw values
+     */
+    @Deprecated
+    public int[] getData() {
+        ShortBuffer raw = flir.rawView();
+        return IntStream.range(0, raw.capacity()).map(i -> Short.toUnsignedInt(raw.get(i))).toArray();
+    }
+
+    /**
+     * An estimate of the heap held by the derived products (that have not been released) in bytes.
+     * 
+     * @return size in bytes
+     */
+    long footprint() {
+        Stats s = stats.peek();
+        Roi.Integral i = integral.peek();
+        int[] p = defaultPalette.peek();
+        return 64 + (s == null ? 0 : 64 + s.cumulative.length * 4L) + (i == null ? 0 : i.footprint()) + (p == null ? 0 : 16 + p.length * 4L)
+            + footprint(minPyramid) + footprint(maxPyramid) + footprint(meanPyramid);
+    }
+
+    private static long footprint(Soft<Pyramid> pyramid) {
+        Pyramid p = pyramid.peek();
+        return p == null ? 0 : p.footprint();
+    }
+
+    /**
+     * Statistics of the raw values (computed on first use).
+     * 
+     * @return {@link org.keeber.imaging.thermal.FlirToolkit.Stats}
+     */
+    public Stats getStats() {
+        return stats.get(() -> new Stats(flir));
     }
 
 
@@ -89,74 +257,253 @@ public class FlirToolkit {
      * @return temperatures in Fahrenheit or Celcius
      */
     public double[] getTemperatures(boolean fahrenheit) {
-        // From https://rdrr.io/cran/Thermimage/src/R/raw2temp.R
-        double E =      flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.Emissivity);                               // Emissivity - default 1, should be ~0.95 to 0.97 depending on source
-        double OD =     flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.ObjectDistance);                           // Object distance in metres
-        double RTemp =  flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.ReflectedApparentTemperature) - 273.15;    // Apparent reflected temperature - one value from FLIR file (oC), default 20C
-        double ATemp =  flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTemperature) - 273.15;          // Atmospheric temperature for tranmission loss - one value from FLIR file (oC) - default = RTemp
-        double IRT =    flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.IRWindowTransmission);                     // Infrared Window transmission - default 1.  likely ~0.95-0.96. Should be empirically determined.
-        //
-        double RH =     flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.RelativeHumidity) * 100;                   // Relative humidity - default 50% // this is a float in out values.
-        //
-        double PR1 =    flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.PlanckR1);                                 // Constant (FLIR)
-        double PB =     flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.PlanckB);                                  // Constant (FLIR)
-        double PF =     flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.PlanckF);                                  // Constant (FLIR)
-        double PO =     flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.PlanckO);                                  // Constant (FLIR)
-        double PR2 =    flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.PlanckR2);                                 // Constant (FLIR)
-        //
-        double emissWind = 1 - IRT;
-        double reflWind = 0;
-        double h2o = (RH/100)*Math.exp(1.5587+0.06939*(ATemp)-0.00027816*Math.pow(ATemp, 2)+0.00000068455*Math.pow(ATemp, 3));
-        //
-        double ATA1 =   flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransAlpha1);                   // Constant 
-        double ATA2 =   flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransAlpha2);                   // Constant
-        double ATB1 =   flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransBeta1);                    // Constant
-        double ATB2 =   flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransBeta2);                    // Constant
-        double ATX =    flir.getProperty(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransX);                        // Constant
-        //
-        double tau1=ATX*Math.exp(-Math.sqrt(OD/2)*(ATA1+ATB1*Math.sqrt(h2o)))+(1-ATX)*Math.exp(-Math.sqrt(OD/2)*(ATA2+ATB2*Math.sqrt(h2o)));
-        double tau2=ATX*Math.exp(-Math.sqrt(OD/2)*(ATA1+ATB1*Math.sqrt(h2o)))+(1-ATX)*Math.exp(-Math.sqrt(OD/2)*(ATA2+ATB2*Math.sqrt(h2o)));
-        //
-        double rawRefl1=PR1/(PR2*(Math.exp(PB/(RTemp+273.15))-PF))-PO;                                                      // # Radiance reflecting off the object before the window
-        double rawRefl1Attn=(1-E)/E*rawRefl1;                                                                               // # Attn = the attenuated radiance (in raw units) 
-        //
-        double rawAtm1=PR1/(PR2*(Math.exp(PB/(ATemp+273.15))-PF))-PO;                                                       // # Radiance from the atmosphere (before the window)
-        double rawAtm1Attn=(1-tau1)/E/tau1*rawAtm1;                                                                         // # Attn = the attenuated radiance (in raw units) 
-        //
-        double IRWTemp = RTemp;                                                                                             // I don't know why the lib does this but it does
-        //
-        double rawWind=PR1/(PR2*(Math.exp(PB/(IRWTemp+273.15))-PF))-PO;
-        double rawWindAttn=emissWind/E/tau1/IRT*rawWind;
-        //
-        double rawRefl2=PR1/(PR2*(Math.exp(PB/(RTemp+273.15))-PF))-PO ;
-        double rawRefl2Attn=reflWind/E/tau1/IRT*rawRefl2;
-        //
-        double rawAtm2=PR1/(PR2*(Math.exp(PB/(ATemp+273.15))-PF))-PO;
-        double rawAtm2Attn=(1-tau2)/E/tau1/IRT/tau2*rawAtm2;
-        //
-        return IntStream.of(data).mapToDouble(d -> d).map(r -> 
-            (r/E/tau1/IRT/tau2-rawAtm1Attn-rawAtm2Attn-rawWindAttn-rawRefl1Attn-rawRefl2Attn)).map(r -> 
-                //temp.C
-                PB/Math.log(PR1/(PR2*(r+PO))+PF) - 273.15
-        ).map(d -> fahrenheit?d * (9d/5d) + 32:d).toArray();
+        return getTemperatures(new double[flir.rawLength()], fahrenheit ? Unit.FAHRENHEIT : Unit.CELSIUS);
+    }
+
+    /**
+     * Writes the temperature values in the unit into the provided array - nothing is allocated.
+     * 
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public double[] getTemperatures(double[] out, Unit unit) {
+        TemperatureLut lut = getTemperatureLut();
+        checkLength(out.length);
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.TEMPERATURE).frame(flir)) {
+            flir.forEachRun((raw, offset, index, length) -> lut.apply(raw, offset, out, index, length, unit));
+        }
+        return out;
+    }
+
+    /**
+     * Writes the temperature values in the unit into the provided array - nothing is allocated.
+     * 
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] getTemperatures(float[] out, Unit unit) {
+        TemperatureLut lut = getTemperatureLut();
+        checkLength(out.length);
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.TEMPERATURE).frame(flir)) {
+            flir.forEachRun((raw, offset, index, length) -> lut.apply(raw, offset, out, index, length, unit));
+        }
+        return out;
+    }
+
+    /**
+     * Writes the temperature values in the unit into the provided array - each pixel at the emissivity of the map 
+     * (see {@link org.keeber.imaging.thermal.TemperatureModel#apply(FlirImage, EmissivityMap, float[], Unit)}).
+     * 
+     * @param model compiled from the calibration (reused across frames)
+     * @param map of emissivities (the size of the image)
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] getTemperatures(TemperatureModel model, EmissivityMap map, float[] out, Unit unit) {
+        return model.apply(flir, map, out, unit);
+    }
+
+    /**
+     * Writes the temperature values into the provided array - each pixel at the emissivity of the map of the tables 
+     * (see {@link org.keeber.imaging.thermal.TemperatureModel#apply(FlirImage, TemperatureModel.Tables, float[])}).
+     * 
+     * @param model compiled from the calibration (reused across frames)
+     * @param tables of the map (reused across frames)
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public float[] getTemperatures(TemperatureModel model, TemperatureModel.Tables tables, float[] out) {
+        return model.apply(flir, tables, out);
+    }
+
+    /**
+     * Writes the temperature values in the unit into the provided buffer (from index 0) - eg: an off heap 
+     * temperature plane from {@link RawStore#allocateFloats(int)}.
+     * 
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out buffer
+     */
+    public FloatBuffer getTemperatures(FloatBuffer out, Unit unit) {
+        TemperatureLut lut = getTemperatureLut();
+        checkLength(out.limit());
+        float[] row = new float[flir.imageWd];
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.TEMPERATURE).frame(flir)) {
+            flir.forEachRow((y, raw, offset) -> {
+                lut.apply(raw, offset, row, 0, row.length, unit);
+                out.put(y * row.length, row);
+            });
+        }
+        return out;
+    }
+
+    /**
+     * Writes the temperature values as fixed point centi-Kelvin (hundredths of a degree Kelvin) into the 
+     * provided array - nothing is allocated. Values without a temperature are 0.
+     * 
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public int[] getCentiKelvin(int[] out) {
+        TemperatureLut lut = getTemperatureLut();
+        checkLength(out.length);
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.TEMPERATURE).frame(flir)) {
+            flir.forEachRun((raw, offset, index, length) -> lut.applyCentiKelvin(raw, offset, out, index, length));
+        }
+        return out;
+    }
+
+    /**
+     * Writes the temperature values as fixed point centi-Kelvin (hundredths of a degree Kelvin) into the 
+     * provided array as unsigned shorts (clamped to 655.35K) - nothing is allocated. Values without a 
+     * temperature are 0.
+     * 
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public short[] getCentiKelvin(short[] out) {
+        TemperatureLut lut = getTemperatureLut();
+        checkLength(out.length);
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.TEMPERATURE).frame(flir)) {
+            flir.forEachRun((raw, offset, index, length) -> lut.applyCentiKelvin(raw, offset, out, index, length));
+        }
+        return out;
+    }
+
+    private void checkLength(int length) {
+        if (length < flir.rawLength()) {
+            throw new IllegalArgumentException("Output is too small for the values (" + length + " < " + flir.rawLength() + ").");
+        }
+    }
+
+    /**
+     * The (shared) raw value to temperature table for the calibration of this image.
+     * 
+     * @return {@link org.keeber.imaging.thermal.TemperatureLut}
+     */
+    public TemperatureLut getTemperatureLut() {
+        return this.lut == null ? lut = TemperatureLut.of(flir) : lut;
+    }
+
+
+    /**
+     * Measures a region of interest (see {@link org.keeber.imaging.thermal.Roi}) - the count and mean are 
+     * taken from summed-area tables of the raw values and temperatures (built on first use) so are constant time for a 
+     * rectangle (or point) and a lookup per row for other shapes.
+     * 
+     * @param roi the region
+     * @return the reading
+     */
+    public Roi.Reading measure(Roi roi) {
+        int wd = flir.imageWd, ht = flir.imageHt;
+        Roi.Integral sat = getIntegral();
+        long[] total = new long[3]; // count, sum, count with a temperature
+        double[] celsius = new double[1];
+        if (roi instanceof Roi.Rect r) {
+            int x0 = Math.max(0, r.x), y0 = Math.max(0, r.y);
+            int x1 = (int) Math.min(wd, (long) r.x + r.wd), y1 = (int) Math.min(ht, (long) r.y + r.ht);
+            if (x0 < x1 && y0 < y1) {
+                total[0] = (long) (x1 - x0) * (y1 - y0);
+                total[1] = sat.sum(x0, y0, x1, y1);
+                celsius[0] = sat.sumCelsius(x0, y0, x1, y1);
+                total[2] = sat.countCelsius(x0, y0, x1, y1);
+            }
+        } else {
+            roi.spans(wd, ht, (y, x0, x1) -> {
+                total[0] += x1 - x0;
+                total[1] += sat.sum(x0, y, x1, y + 1);
+                celsius[0] += sat.sumCelsius(x0, y, x1, y + 1);
+                total[2] += sat.countCelsius(x0, y, x1, y + 1);
+            });
+        }
+        return new Roi.Reading(roi, (int) total[0], total[1], celsius[0], (int) total[2], getTemperatureLut(), flir.rawView(), wd, ht);
+    }
+
+    /**
+     * Finds the hotspots - the blobs of pixels at or above the temperature (see {@link org.keeber.imaging.thermal.HotspotDetector}, 
+     * which can be reused across frames).
+     * 
+     * @param threshold temperature
+     * @param unit of the threshold and the peak temperatures
+     * @param minArea of the reported blobs in pixels
+     * @return the hotspots hottest first
+     */
+    public List<HotspotDetector.Hotspot> detectHotspots(double threshold, Unit unit, int minArea) {
+        return new HotspotDetector(threshold, unit, minArea).detect(flir);
+    }
+
+    private Roi.Integral getIntegral() {
+        return integral.get(() -> new Roi.Integral(flir, getTemperatureLut()));
+    }
+
+    /**
+     * The multi-resolution pyramid of the raw values for the pooling mode (see {@link org.keeber.imaging.thermal.Pyramid}) - 
+     * the levels are computed on first use.
+     * 
+     * @param mode of pooling
+     * @return the pyramid
+     */
+    public Pyramid getPyramid(Pyramid.Mode mode) {
+        Soft<Pyramid> pyramid = switch (mode) {
+            case MIN -> minPyramid;
+            case MAX -> maxPyramid;
+            case MEAN -> meanPyramid;
+        };
+        return pyramid.get(() -> new Pyramid(flir, getTemperatureLut(), mode));
     }
 
+    /**
+     * Renders a preview of exactly the size from the pyramid (see {@link org.keeber.imaging.thermal.Pyramid#preview(int, int)}) - 
+     * eg: with {@link RowTransformer#palletted(int[], int, int, int, int)} for a paletted thumbnail.
+     * 
+     * @param transformer {@link org.keeber.imaging.thermal.FlirToolkit.RowTransformer}
+     * @param wd width (not more than the image width)
+     * @param ht height (not more than the image height)
+     * @param mode of pooling
+     * @return the preview image
+     */
+    public BufferedImage asThumbnail(RowTransformer transformer, int wd, int ht, Pyramid.Mode mode) {
+        return asImage(getPyramid(mode).preview(wd, ht), transformer);
+    }
+
+    /**
+     * Renders a level (or preview) of a pyramid with the provided (row) transformer.
+     * 
+     * @param level of a pyramid
+     * @param transformer {@link org.keeber.imaging.thermal.FlirToolkit.RowTransformer}
+     * @return an image representation of the level
+     */
+    public BufferedImage asImage(Pyramid.Level level, RowTransformer transformer) {
+        return createImage(level.render(transformer, new int[level.getWidth() * level.getHeight()]), level.getWidth(), level.getHeight());
+    }
 
     public BufferedImage createColorbar(int[] palette) {
-        return new BufferedImage(ColorModel.getRGBdefault(),
-                        Raster.createWritableRaster(new SinglePixelPackedSampleModel(
-                                DataBuffer.TYPE_INT,palette.length, 1,
-                                new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 }),
-                                new DataBufferInt(palette, palette.length), new Point()),
-                        false, null);
+        return createImage(palette, palette.length, 1);
     }
 
     public BufferedImage asImageTransformed(IntStreamTransformer transformer,int max,int min) {
+        return createImage(transform(transformer,max,min), flir.imageWd, flir.imageHt);
+    }
+
+    /**
+     * Renders the image with the provided (row) transformer.
+     * 
+     * @param transformer {@link org.keeber.imaging.thermal.FlirToolkit.RowTransformer}
+     * @return an image representation of the raw flir content
+     */
+    public BufferedImage asImage(RowTransformer transformer) {
+        return createImage(render(transformer, new int[flir.imageWd * flir.imageHt]), flir.imageWd, flir.imageHt);
+    }
+
+    private BufferedImage createImage(int[] data, int wd, int ht) {
         return new BufferedImage(ColorModel.getRGBdefault(),
                 Raster.createWritableRaster(new SinglePixelPackedSampleModel(
-                        DataBuffer.TYPE_INT,flir.imageWd, flir.imageHt,
+                        DataBuffer.TYPE_INT, wd, ht,
                         new int[] { 0xFF0000, 0xFF00, 0xFF, 0xFF000000 }),
-                        new DataBufferInt(transform(transformer,max,min), data.length), new Point()),
+                        new DataBufferInt(data, data.length), new Point()),
                 false, null);
     }
 
@@ -166,7 +513,8 @@ public class FlirToolkit {
      * @return an image representation of the raw flir content
      */
     public BufferedImage asImageDefault() {
-        return asImagePalletted(getDefaultPalette(),stats.getMax(),stats.getMin(),0x0,0x0);
+        Stats stats = getStats();
+        return asImagePalletted(defaultPalette(),stats.getMax(),stats.getMin(),0x0,0x0);
     }
 
     /**
@@ -175,37 +523,105 @@ public class FlirToolkit {
      * @return
      */
     public int[] getDefaultPalette(){
-        return Arrays.stream(flir.paletteData).mapToInt(c -> ycbcrtoRGB(c)).toArray();
+        return defaultPalette().clone();
+    }
+
+    private int[] defaultPalette() {
+        return defaultPalette.get(() -> Arrays.stream(flir.getPaletteData()).mapToInt(c -> ycbcrtoRGB(c)).toArray());
     }
 
     public BufferedImage asImagePalletted(int[] palette, int max, int min, int overColor, int underColor) {
-      return asImageTransformed(
-            (x,y,w,h,l,r) -> { return l < 0?underColor:l > 1?overColor:palette[(int) Math.round((palette.length - 1) * l)]; },
-            max,
-            min
-        );
+        return asImage(RowTransformer.palletted(palette, max, min, overColor, underColor));
     }
 
+    /**
+     * A 'pretty' SVG of the image (with the default palette) - with a colorbar, histogram, percentile marks and
+     * the temperature range. See {@link #writePrettySVG(OutputStream)}.
+     * 
+     * @return the SVG document
+     */
     public String asPrettySVG() throws IOException {
-        int[] palette = getDefaultPalette();
-        // Image
-        ByteArrayOutputStream img = new ByteArrayOutputStream();
-        ImageIO.write(asImagePalletted(palette, stats.getMax(), stats.getMin(), 0x0, 0x0), "png", img);
-        // Colorbar
-        ByteArrayOutputStream bar = new ByteArrayOutputStream();
-        ImageIO.write(createColorbar(palette), "png", bar);
+        ByteArrayOutputStream svg = new ByteArrayOutputStream();
+        writePrettySVG(svg);
+        return svg.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the 'pretty' SVG (UTF-8) to the stream - the image and colorbar PNGs are Base64 encoded straight 
+     * into the stream, the histogram and temperature range are taken from the stats. The stream is not closed.
+     * 
+     * @param os to write to
+     */
+    public void writePrettySVG(OutputStream os) throws IOException {
+        int[] palette = defaultPalette();
+        Stats stats = getStats();
         // Histogram
-        int[] hist= createHistogram(palette.length, stats.getMax(), stats.getMin());
+        int[] hist = createHistogram(palette.length, stats.getMax(), stats.getMin());
         double hmax = IntStream.of(hist).max().orElse(10);
         String d = IntStream.range(0,hist.length).mapToObj(i -> "L "+((i / (hist.length * 1d)) * (flir.imageWd - 10f))+" -"+(hist[i] / hmax * 50d)).collect(Collectors.joining(" "));
         
         String percentiles = IntStream.range(0, 10).mapToObj(i -> "M "+
-            (((flir.imageWd - 10) * flir.getToolkit().getStats().getPercentileOffset(i / 10f)) + 5) +" "+
+            (((flir.imageWd - 10) * stats.getPercentileOffset(i / 10f)) + 5) +" "+
             (flir.imageHt - 5)+" V "+
             (flir.imageHt - 55)
         ).collect(Collectors.joining());
-        DoubleSummaryStatistics temps = DoubleStream.of(getTemperatures()).summaryStatistics();
-        return MessageFormat.format("""
+        Object[] args = {
+            flir.imageWd,                                               // {0} Image Wd
+            flir.imageHt,                                               // {1} Image Ht
+            null,                                                       // {2} Image Data (streamed)
+            5,                                                          // {3} Colorbar X
+            5,                                                          // {4} Colorbar Y
+            flir.imageWd - 10,                                          // {5} Colorbar Wd
+            10,                                                         // {6} Colorbar Ht
+            null,                                                       // {7} Colorbar Data (streamed)
+            d,                                                          // {8} Histogram Path
+            flir.imageHt - 5,                                           // {9} Histogram Translate Y
+            percentiles,                                                // {10} Percentile marks
+            getTemperatureLut().getCelsius(stats.getMin()),             // {11} Min temp
+            getTemperatureLut().getCelsius(stats.getMax())              // {12} Max temp
+        };
+        os.write(MessageFormat.format(SVG_HEAD, args).getBytes(StandardCharsets.UTF_8));
+        try (OutputStream base64 = base64(os)) {
+            writePNG(asImagePalletted(palette, stats.getMax(), stats.getMin(), 0x0, 0x0), base64);
+        }
+        os.write(MessageFormat.format(SVG_COLORBAR, args).getBytes(StandardCharsets.UTF_8));
+        try (OutputStream base64 = base64(os)) {
+            writePNG(createColorbar(palette), base64);
+        }
+        os.write(MessageFormat.format(SVG_TAIL, args).getBytes(StandardCharsets.UTF_8));
+        os.flush();
+    }
+
+    /**
+     * Encodes the image as a PNG into the stream (reported as the {@link FlirMetrics.Stage#ENCODE} stage).
+     * 
+     * @param image to encode
+     * @param os to write to (not closed)
+     */
+    static void writePNG(BufferedImage image, OutputStream os) throws IOException {
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.ENCODE).frame(image.getWidth(), image.getHeight(), -1)) {
+            ImageIO.write(image, "png", os);
+        }
+    }
+
+    /**
+     * A Base64 encoding stream into the stream - closing it writes the padding but leaves the stream open.
+     */
+    private static OutputStream base64(OutputStream os) {
+        return Base64.getEncoder().wrap(new FilterOutputStream(os) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+    }
+
+    private static final String SVG_HEAD = """
 <?xml version="1.0" encoding="UTF-8"?>
 <svg width="{0}" height="{1}" version="1.1" viewBox="0 0 {0} {1}" xml:space="preserve" xmlns="http://www.w3.org/2000/svg" xmlns:xlink="http://www.w3.org/1999/xlink">
     <style>
@@ -213,8 +629,12 @@ public class FlirToolkit {
         text '{' font: 10px "Courier New", sans-serif;fill: #ffffff; '}'
         ]]>
     </style>
-    <image width="{0}" height="{1}" preserveAspectRatio="none" xlink:href="data:image/png;base64,{2}"/>
-    <image x="{3}" y="{4}" width="{5}" height="{6}" preserveAspectRatio="none" xlink:href="data:image/png;base64,{7}"/>
+    <image width="{0}" height="{1}" preserveAspectRatio="none" xlink:href="data:image/png;base64,""";
+    private static final String SVG_COLORBAR = """
+"/>
+    <image x="{3}" y="{4}" width="{5}" height="{6}" preserveAspectRatio="none" xlink:href="data:image/png;base64,""";
+    private static final String SVG_TAIL = """
+"/>
     <rect x="{3}" y="{4}" width="{5}" height="{6}" style="fill: none;stroke: #fffffff;stroke-opacity: 0.2;stroke-width: 1px;"/>
     <rect x="5" y="{1}" width="{5}" height="50" style="fill: #000000;fill-opacity: 0.3;stroke: #ffffff;stroke-opacity: 0.2;stroke-width: 0.5px;" transform="translate(0,-55)"/>
     <g transform="translate(5, {9}) scale(1 1)" >
@@ -223,26 +643,26 @@ public class FlirToolkit {
     <path d="{10}" style="fill: none;stroke: #ffffff;stroke-opacity: 0.5;stroke-width: 0.5px;"/>
     <text x="7" y="{1}" transform="translate(0,-27.25)">{11}°C</text>
     <text x="{0}" y="{1}" transform="translate(-7,-27.25)" text-anchor="end">{12}°C</text>
-</svg>""",
-            flir.imageWd,                                               // {0} Image Wd
-            flir.imageHt,                                               // {1} Image Ht
-            Base64.getEncoder().encodeToString(img.toByteArray()),      // {2} Image Data
-            5,                                                          // {3} Colorbar X
-            5,                                                          // {4} Colorbar Y
-            flir.imageWd - 10,                                          // {5} Colorbar Wd
-            10,                                                         // {6} Colorbar Ht
-            Base64.getEncoder().encodeToString(bar.toByteArray()),      // {7} Colorbar Data
-            d,                                                          // {8} Histogram Path
-            flir.imageHt - 5,                                           // {9} Histogram Translate Y
-            percentiles,                                                // {10} Percentile marks
-            temps.getMin(),                                             // {11} Min temp
-            temps.getMax()                                              // {12} Max temp
-        );
-    }
+</svg>""";
 
+    /**
+     * A histogram of the raw values between min and max - counted from the (cached) stats rather than the 
+     * pixels.
+     * 
+     * @param buckets number of buckets
+     * @param max raw value (the last bucket)
+     * @param min raw value (the first bucket)
+     * @return the counts
+     */
     public int[] createHistogram(int buckets, int max, int min) {
-        int[] hist = new int[buckets]; // Use the existing code as a for each
-        Arrays.stream(transform((x,y,w,h,l,r) -> {  if ( l >= 0 || l <= l ) { hist[(int) Math.round((buckets - 1) * l)]++; } return 0; },max,min)).toArray();
+        int[] hist = new int[buckets];
+        Stats stats = getStats();
+        float l;
+        for (int r = stats.getMin(), n; r <= stats.getMax(); r++) {
+            if ((n = stats.getFrequency(r)) > 0 && (l = (r - min * 1f) / (max - min * 1f)) == l) { // Not NaN (when max == min)
+                hist[(int) Math.round((buckets - 1) * (double) l)] += n;
+            }
+        }
         return hist;
     }
 
@@ -253,16 +673,54 @@ public class FlirToolkit {
      * @return
      */
     public int[] transform(IntStreamTransformer transformer, int max, int min) {
-        int[] data = getData();
-        return IntStream.range(0, flir.imageHt).flatMap(y -> IntStream.range(0, flir.imageWd).map(x -> transformer.transform(
-            x, 
-            y,
-            flir.imageWd,
-            flir.imageHt, 
-            (data[( (y *  flir.imageWd) + x )] - min * 1f) / (max - min * 1f),
-            data[( (y *  flir.imageWd) + x )]
-            )
-        )).toArray();
+        return render(RowTransformer.of(transformer, flir.imageWd, flir.imageHt, max, min), new int[flir.imageWd * flir.imageHt]);
+    }
+
+    /**
+     * Renders the raw data into the provided array (one int per pixel, row by row) with the provided 
+     * transformer instance - nothing is allocated.
+     * 
+     * @param transformer {@link org.keeber.imaging.thermal.FlirToolkit.RowTransformer}
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public int[] render(RowTransformer transformer, int[] out) {
+        int wd = flir.imageWd, ht = flir.imageHt;
+        if (out.length < wd * ht) {
+            throw new IllegalArgumentException("Output is too small for the image (" + out.length + " < " + (wd * ht) + ").");
+        }
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.RENDER).frame(flir)) {
+            flir.forEachRow((y, raw, offset) -> transformer.transform(y, raw, offset, out, y * wd, wd));
+        }
+        return out;
+    }
+
+    /**
+     * Renders the raw data into the provided raster with the provided transformer instance. The raster 
+     * must store each pixel as a single packed int (eg: created with {@link java.awt.image.ColorModel#getRGBdefault()}) 
+     * and be at least the size of the image.
+     * 
+     * @param transformer {@link org.keeber.imaging.thermal.FlirToolkit.RowTransformer}
+     * @param raster to write to
+     * @return the raster
+     */
+    public WritableRaster render(RowTransformer transformer, WritableRaster raster) {
+        int wd = flir.imageWd, ht = flir.imageHt;
+        if (raster.getWidth() < wd || raster.getHeight() < ht) {
+            throw new IllegalArgumentException("Raster is too small for the image.");
+        }
+        if (!(raster.getDataBuffer() instanceof DataBufferInt buffer) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel model)) {
+            throw new IllegalArgumentException("Raster must have a single packed int per pixel.");
+        }
+        int[] out = buffer.getData();
+        int stride = model.getScanlineStride();
+        int origin = buffer.getOffset() 
+            + (raster.getMinY() - raster.getSampleModelTranslateY()) * stride 
+            + (raster.getMinX() - raster.getSampleModelTranslateX());
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.RENDER).frame(flir)) {
+            flir.forEachRow((y, raw, offset) -> transformer.transform(y, raw, offset, out, origin + y * stride, wd));
+        }
+        return raster;
     }
 
     /**
@@ -308,4 +766,60 @@ public class FlirToolkit {
 
     }
 
+    /**
+     * Used to transform the raw data a row at a time - usually to colors to render an image. Implementations 
+     * should be a plain loop over the row.
+     */
+    @FunctionalInterface
+    public static interface RowTransformer {
+
+        /**
+         * Write a integer to the output for each raw value in the row.
+         * 
+         * @param y the row of the image.
+         * @param raw the raw (unsigned) values of the image.
+         * @param offset the index of the first raw value of the row.
+         * @param out the output.
+         * @param outOffset the index of the output for the first value of the row.
+         * @param length the number of values in the row (the width of the image).
+         */
+        public void transform(int y, short[] raw, int offset, int[] out, int outOffset, int length);
+
+        /**
+         * Adapts a (per pixel) {@link org.keeber.imaging.thermal.FlirToolkit.IntStreamTransformer}.
+         * 
+         * @param transformer per pixel transformer
+         * @param w width of the image.
+         * @param h height of the image.
+         * @param max raw value (level == 1)
+         * @param min raw value (level == 0)
+         * @return a row transformer
+         */
+        public static RowTransformer of(IntStreamTransformer transformer, int w, int h, int max, int min) {
+            return (y, raw, offset, out, outOffset, length) -> {
+                float[] levels = Kernels.scratch(length);
+                Kernels.levels(raw, offset, levels, 0, length, max, min);
+                for (int x = 0; x < length; x++) {
+                    out[outOffset + x] = transformer.transform(x, y, w, h, levels[x], Short.toUnsignedInt(raw[offset + x]));
+                }
+            };
+        }
+
+        /**
+         * Maps the raw values between min and max to the palette - values outside of the range are 
+         * the over / under colors.
+         * 
+         * @param palette colors
+         * @param max raw value (the last palette color)
+         * @param min raw value (the first palette color)
+         * @param overColor above the max
+         * @param underColor below the min
+         * @return a row transformer (the shared {@link org.keeber.imaging.thermal.PaletteLut} for the parameters)
+         */
+        public static RowTransformer palletted(int[] palette, int max, int min, int overColor, int underColor) {
+            return PaletteLut.of(palette, max, min, overColor, underColor);
+        }
+
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+package org.keeber.imaging.thermal;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * Per pixel statistics across a stream of frames (from the same camera) - the running min, max, mean and variance
+ * of the raw values. Frames are folded into primitive per pixel state in place (Welford's algorithm) so nothing is
+ * allocated per frame, and accumulators filled on different threads can be merged (Chan et al.) - an accumulator
+ * itself is not thread safe.
+ *
+ * The aggregates are emitted as temperature planes with the {@link TemperatureLut} of the frames - every frame (and
+ * merged accumulator) must have the calibration of the first (the same emissivity, distance etc). The min and
+ * max are exact (the conversion is monotonic in the raw value). The mean is the temperature of the mean raw value
+ * (interpolated between table entries) - raw values are linear in radiance so this is the temperature of the mean
+ * radiance - and the standard deviation is that of the raw values scaled by the slope of the conversion at the
+ * mean (a first order approximation, close for the small variations of a fixed scene).
+ */
+public class FrameAccumulator {
+    @Getter private int width, height;
+    @Getter private long count;
+    @Getter private TemperatureLut temperatureLut;
+    private short[] min, max;       // Unsigned raw values
+    private double[] mean, m2;      // Of the raw values (m2 - the sum of squared differences from the mean)
+
+    /**
+     * Folds the raw values of the frame into the statistics.
+     *
+     * @param flir frame (the size and calibration of the first frame)
+     * @return this accumulator
+     */
+    public FrameAccumulator add(FlirImage flir) {
+        int values = flir.rawLength(); // (Decodes the raw values - before any state is changed)
+        init(flir.imageWd, flir.imageHt, flir.getToolkit().getTemperatureLut());
+        if (values != mean.length) {
+            throw new IllegalArgumentException("Frame has " + values + " raw values (expected " + mean.length + ").");
+        }
+        double inverse = 1d / (count + 1);
+        double[] mean = this.mean, m2 = this.m2;
+        short[] min = this.min, max = this.max;
+        flir.forEachRun((raw, offset, index, length) -> {
+            for (int i = 0, p = index, v; i < length; i++, p++) {
+                v = raw[offset + i] & 0xffff;
+                double d = v - mean[p];
+                mean[p] += d * inverse;
+                m2[p] += d * (v - mean[p]);
+                if (v < (min[p] & 0xffff)) min[p] = (short) v;
+                if (v > (max[p] & 0xffff)) max[p] = (short) v;
+            }
+        });
+        count++;
+        return this;
+    }
+
+    /**
+     * Merges the statistics of another accumulator (of frames of the same size and calibration) into this one -
+     * the other is not changed.
+     *
+     * @param other accumulator
+     * @return this accumulator
+     */
+    public FrameAccumulator merge(FrameAccumulator other) {
+        if (other.count == 0) {
+            return this;
+        }
+        init(other.width, other.height, other.temperatureLut);
+        long n = count + other.count;
+        double wa = count / (double) n, wb = other.count / (double) n, ab = count * (double) other.count / n;
+        for (int p = 0; p < mean.length; p++) {
+            double d = other.mean[p] - mean[p];
+            mean[p] = mean[p] * wa + other.mean[p] * wb;
+            m2[p] += other.m2[p] + d * d * ab;
+            if ((other.min[p] & 0xffff) < (min[p] & 0xffff)) min[p] = other.min[p];
+            if ((other.max[p] & 0xffff) > (max[p] & 0xffff)) max[p] = other.max[p];
+        }
+        count = n;
+        return this;
+    }
+
+    private void init(int width, int height, TemperatureLut lut) {
+        if (mean != null) {
+            if (width != this.width || height != this.height) {
+                throw new IllegalArgumentException("Frame is " + width + "x" + height + " (expected " + this.width + "x" + this.height + ").");
+            }
+            // Tables are shared per calibration (compared by calibration as well in case the table was evicted from the cache)
+            if (lut != temperatureLut && !lut.getCalibration().equals(temperatureLut.getCalibration())) {
+                throw new IllegalArgumentException("Calibration (emissivity, distance etc) differs from the first frame.");
+            }
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        this.temperatureLut = lut;
+        this.mean = new double[width * height];
+        this.m2 = new double[width * height];
+        this.min = new short[width * height];
+        this.max = new short[width * height];
+        Arrays.fill(min, (short) 0xffff);
+    }
+
+    /**
+     * Writes the min temperature of each pixel into the provided array.
+     *
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] getMin(float[] out, FlirToolkit.Unit unit) {
+        checkLength(out.length);
+        temperatureLut.apply(min, 0, out, 0, min.length, unit);
+        return out;
+    }
+
+    /**
+     * Writes the max temperature of each pixel into the provided array.
+     *
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] getMax(float[] out, FlirToolkit.Unit unit) {
+        checkLength(out.length);
+        temperatureLut.apply(max, 0, out, 0, max.length, unit);
+        return out;
+    }
+
+    /**
+     * Writes the mean temperature of each pixel (the temperature of the mean raw value) into the provided array.
+     *
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] getMean(float[] out, FlirToolkit.Unit unit) {
+        checkLength(out.length);
+        for (int p = 0, r; p < mean.length; p++) {
+            double m = mean[p], t0 = temperatureLut.getTemperature(r = Math.min((int) m, TemperatureLut.SIZE - 2), unit);
+            out[p] = (float) (t0 + (m - r) * (temperatureLut.getTemperature(r + 1, unit) - t0));
+        }
+        return out;
+    }
+
+    /**
+     * Writes the (population) standard deviation of the temperature of each pixel into the provided array - the
+     * standard deviation of the raw values scaled by the slope of the conversion at the mean.
+     *
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] getStandardDeviation(float[] out, FlirToolkit.Unit unit) {
+        checkLength(out.length);
+        for (int p = 0, r; p < mean.length; p++) {
+            r = Math.min((int) mean[p], TemperatureLut.SIZE - 2);
+            double slope = temperatureLut.getTemperature(r + 1, unit) - temperatureLut.getTemperature(r, unit);
+            out[p] = (float) (Math.sqrt(m2[p] / count) * Math.abs(slope));
+        }
+        return out;
+    }
+
+    /**
+     * Writes the mean raw value of each pixel into the provided array.
+     *
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public double[] getRawMean(double[] out) {
+        checkLength(out.length);
+        System.arraycopy(mean, 0, out, 0, mean.length);
+        return out;
+    }
+
+    /**
+     * Writes the (population) variance of the raw values of each pixel into the provided array.
+     *
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public double[] getRawVariance(double[] out) {
+        checkLength(out.length);
+        for (int p = 0; p < m2.length; p++) {
+            out[p] = m2[p] / count;
+        }
+        return out;
+    }
+
+    private void checkLength(int length) {
+        if (count == 0) {
+            throw new IllegalStateException("No frames have been added.");
+        }
+        if (length < mean.length) {
+            throw new IllegalArgumentException("Output is too small for the values (" + length + " < " + mean.length + ").");
+        }
+    }
+
+}
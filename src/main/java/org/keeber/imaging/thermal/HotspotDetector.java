@@ -0,0 +1,195 @@
+package org.keeber.imaging.thermal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * Finds the hotspots of an image - the (8 connected) blobs of pixels at or above a temperature threshold. The
+ * threshold is inverted once into a raw value cutoff ({@link TemperatureLut#rawAtLeast(double, FlirToolkit.Unit)})
+ * so each pixel is a single integer comparison - only the peak of each blob is converted to a temperature.
+ *
+ * Blobs are labeled in a single pass over the rows with a union-find of the provisional labels, the statistics of
+ * each blob are accumulated (and merged) in primitive arrays. A detector reuses its arrays between images so it can
+ * watch a stream of frames without allocating per frame - it is not thread safe.
+ */
+public class HotspotDetector {
+    @Getter private final double threshold;
+    @Getter private final FlirToolkit.Unit unit;
+    @Getter private final int minArea;
+    private TemperatureLut lut;                 // Of the last image (and the cutoff for it)
+    private int cutoff;
+    private int[] prev = new int[0], cur = new int[0];
+    private int[] parent = new int[64], area = new int[64], x0 = new int[64], y0 = new int[64], x1 = new int[64], y1 = new int[64];
+    private int[] peak = new int[64], peakX = new int[64], peakY = new int[64];
+    private long[] sumX = new long[64], sumY = new long[64];
+    private int labels;
+
+    /**
+     * A blob of pixels at or above the threshold.
+     *
+     * @param area in pixels
+     * @param x left of the bounding box
+     * @param y top of the bounding box
+     * @param width of the bounding box
+     * @param height of the bounding box
+     * @param centroidX mean column of the pixels
+     * @param centroidY mean row of the pixels
+     * @param peakX column of the hottest pixel (the first in row order)
+     * @param peakY row of the hottest pixel
+     * @param peakRaw raw value of the hottest pixel
+     * @param peakTemperature temperature of the hottest pixel (in the unit of the detector)
+     */
+    public static record Hotspot(int area, int x, int y, int width, int height, double centroidX, double centroidY,
+        int peakX, int peakY, int peakRaw, double peakTemperature) {}
+
+    /**
+     * @param threshold temperature (blobs are at or above it)
+     * @param unit of the threshold and the peak temperatures
+     * @param minArea of the reported blobs in pixels
+     */
+    public HotspotDetector(double threshold, FlirToolkit.Unit unit, int minArea) {
+        this.threshold = threshold;
+        this.unit = unit;
+        this.minArea = Math.max(1, minArea);
+    }
+
+    /**
+     * Finds the hotspots of the image.
+     *
+     * @param flir image
+     * @return the hotspots (of at least the min area) hottest first
+     */
+    public List<Hotspot> detect(FlirImage flir) {
+        TemperatureLut lut = flir.getToolkit().getTemperatureLut();
+        if (lut != this.lut) {
+            this.cutoff = lut.rawAtLeast(threshold, unit);
+            this.lut = lut;
+        }
+        int wd = flir.imageWd;
+        if (prev.length < wd) {
+            prev = new int[wd];
+            cur = new int[wd];
+        }
+        Arrays.fill(prev, 0, wd, 0);
+        labels = 1; // (0 is background)
+        flir.forEachRow((y, raw, offset) -> row(y, raw, offset, wd));
+        List<Hotspot> hotspots = new ArrayList<>();
+        for (int l = 1; l < labels; l++) {
+            if (parent[l] == l && area[l] >= minArea) {
+                hotspots.add(new Hotspot(area[l], x0[l], y0[l], x1[l] - x0[l] + 1, y1[l] - y0[l] + 1,
+                    sumX[l] / (double) area[l], sumY[l] / (double) area[l], peakX[l], peakY[l], peak[l],
+                    lut.getTemperature(peak[l], unit)));
+            }
+        }
+        hotspots.sort(Comparator.comparingInt(Hotspot::peakRaw).reversed());
+        return hotspots;
+    }
+
+    private void row(int y, short[] raw, int offset, int wd) {
+        int[] prev = this.prev, cur = this.cur;
+        for (int x = 0, v, l; x < wd; x++) {
+            if ((v = raw[offset + x] & 0xffff) < cutoff) {
+                cur[x] = 0;
+                continue;
+            }
+            // Neighbours already visited - left, up left, up & up right
+            l = x > 0 ? cur[x - 1] : 0;
+            l = join(l, x > 0 ? prev[x - 1] : 0);
+            l = join(l, prev[x]);
+            l = join(l, x + 1 < wd ? prev[x + 1] : 0);
+            if (l == 0) {
+                l = label(x, y);
+            }
+            cur[x] = l;
+            add(find(l), x, y, v);
+        }
+        this.prev = cur;
+        this.cur = prev;
+    }
+
+    /**
+     * The root of the label (with path halving).
+     */
+    private int find(int l) {
+        while (parent[l] != l) {
+            l = parent[l] = parent[parent[l]];
+        }
+        return l;
+    }
+
+    /**
+     * Unions the labels (either may be 0) - returning the root. The statistics of the absorbed root are merged
+     * into the remaining root.
+     */
+    private int join(int a, int b) {
+        if (a == 0 || b == 0) {
+            return a == 0 ? (b == 0 ? 0 : find(b)) : find(a);
+        }
+        a = find(a);
+        b = find(b);
+        if (a == b) {
+            return a;
+        }
+        if (b < a) {
+            int t = a; a = b; b = t;
+        }
+        parent[b] = a;
+        area[a] += area[b];
+        sumX[a] += sumX[b];
+        sumY[a] += sumY[b];
+        x0[a] = Math.min(x0[a], x0[b]);
+        y0[a] = Math.min(y0[a], y0[b]);
+        x1[a] = Math.max(x1[a], x1[b]);
+        y1[a] = Math.max(y1[a], y1[b]);
+        if (peak[b] > peak[a] || (peak[b] == peak[a] && (peakY[b] < peakY[a] || (peakY[b] == peakY[a] && peakX[b] < peakX[a])))) {
+            peak[a] = peak[b];
+            peakX[a] = peakX[b];
+            peakY[a] = peakY[b];
+        }
+        return a;
+    }
+
+    private int label(int x, int y) {
+        if (labels == parent.length) {
+            int length = parent.length * 2;
+            parent = Arrays.copyOf(parent, length);
+            area = Arrays.copyOf(area, length);
+            x0 = Arrays.copyOf(x0, length);
+            y0 = Arrays.copyOf(y0, length);
+            x1 = Arrays.copyOf(x1, length);
+            y1 = Arrays.copyOf(y1, length);
+            peak = Arrays.copyOf(peak, length);
+            peakX = Arrays.copyOf(peakX, length);
+            peakY = Arrays.copyOf(peakY, length);
+            sumX = Arrays.copyOf(sumX, length);
+            sumY = Arrays.copyOf(sumY, length);
+        }
+        int l = labels++;
+        parent[l] = l;
+        area[l] = 0;
+        sumX[l] = sumY[l] = 0;
+        x0[l] = x1[l] = x;
+        y0[l] = y1[l] = y;
+        peak[l] = -1;
+        return l;
+    }
+
+    private void add(int l, int x, int y, int v) {
+        area[l]++;
+        sumX[l] += x;
+        sumY[l] += y;
+        if (x < x0[l]) x0[l] = x;
+        if (x > x1[l]) x1[l] = x;
+        if (y > y1[l]) y1[l] = y;
+        if (v > peak[l]) {
+            peak[l] = v;
+            peakX[l] = x;
+            peakY[l] = y;
+        }
+    }
+
+}
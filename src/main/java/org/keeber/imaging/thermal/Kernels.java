@@ -0,0 +1,150 @@
+package org.keeber.imaging.thermal;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The per pixel loops of the toolkit - with SIMD implementations (see {@link VectorKernels}) used when the
+ * incubating Vector API module is available (the JVM is started with `--add-modules jdk.incubator.vector`)
+ * and scalar implementations otherwise. The Vector API can be disabled with the system property
+ * `org.keeber.imaging.thermal.vector=false`.
+ *
+ * Both implementations give identical results - the vector kernels use the same (IEEE) float operations in
+ * the same order and the same lookup tables as the scalar kernels.
+ */
+final class Kernels {
+    static final boolean VECTOR = vectorAvailable();
+
+    private static boolean vectorAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("org.keeber.imaging.thermal.vector", "true"))
+            || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorKernels.available();
+        } catch (LinkageError e) {
+            Logger.getLogger(Kernels.class.getName()).log(Level.FINE, "Vector API unavailable.", e);
+            return false;
+        }
+    }
+
+    private static final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[0]);
+
+    private Kernels() {}
+
+    /**
+     * A (per thread) scratch array of at least the length - for row at a time kernels.
+     *
+     * @param length required
+     * @return the array
+     */
+    static float[] scratch(int length) {
+        float[] floats = scratch.get();
+        if (floats.length < length) {
+            scratch.set(floats = new float[length]);
+        }
+        return floats;
+    }
+
+    /**
+     * The unsigned min and max of a run of raw values - merged into range.
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first value
+     * @param length number of values
+     * @param range {min, max} updated with the run
+     */
+    static void minMax(short[] raw, int offset, int length, int[] range) {
+        if (VECTOR) {
+            VectorKernels.minMax(raw, offset, length, range);
+            return;
+        }
+        int min = range[0], max = range[1], v;
+        for (int i = offset; i < offset + length; i++) {
+            v = raw[i] & 0xffff;
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        range[0] = min;
+        range[1] = max;
+    }
+
+    /**
+     * Counts a run of raw values into a histogram of the values from min - scalar only, a scatter increment 
+     * has no lanewise form (conflicting lanes) so there is no gain from the Vector API.
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first value
+     * @param length number of values
+     * @param histogram counts indexed by (raw - min)
+     * @param min raw value of the first bin
+     */
+    static void histogram(short[] raw, int offset, int length, int[] histogram, int min) {
+        for (int i = offset; i < offset + length; i++) {
+            histogram[(raw[i] & 0xffff) - min]++;
+        }
+    }
+
+    /**
+     * The level of each raw value between min and max - (raw - min) / (max - min) in float.
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first value
+     * @param out for the levels
+     * @param outOffset of the first level
+     * @param length number of values
+     * @param max raw value (level 1)
+     * @param min raw value (level 0)
+     */
+    static void levels(short[] raw, int offset, float[] out, int outOffset, int length, int max, int min) {
+        if (VECTOR) {
+            VectorKernels.levels(raw, offset, out, outOffset, length, max, min);
+            return;
+        }
+        float from = min * 1f, range = max - min * 1f;
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = ((raw[offset + i] & 0xffff) - from) / range;
+        }
+    }
+
+    /**
+     * Looks up each raw value in a (65536 entry) table.
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first value
+     * @param table indexed by raw value
+     * @param out for the values
+     * @param outOffset of the first value
+     * @param length number of values
+     */
+    static void lookup(short[] raw, int offset, float[] table, float[] out, int outOffset, int length) {
+        if (VECTOR) {
+            VectorKernels.lookup(raw, offset, table, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = table[raw[offset + i] & 0xffff];
+        }
+    }
+
+    /**
+     * Looks up each raw value in a (65536 entry) table.
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first value
+     * @param table indexed by raw value
+     * @param out for the values
+     * @param outOffset of the first value
+     * @param length number of values
+     */
+    static void lookup(short[] raw, int offset, int[] table, int[] out, int outOffset, int length) {
+        if (VECTOR) {
+            VectorKernels.lookup(raw, offset, table, out, outOffset, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = table[raw[offset + i] & 0xffff];
+        }
+    }
+
+}
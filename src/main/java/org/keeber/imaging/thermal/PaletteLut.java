@@ -0,0 +1,94 @@
+package org.keeber.imaging.thermal;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A precomputed raw value to color table. For a given palette, range (min / max) and over / under
+ * colors the color of every (unsigned 16bit) raw value is fixed - so rendering is a single lookup
+ * per pixel.
+ *
+ * Tables are cached by their parameters (the palette by content) so rendering the same palette at
+ * the same range shares a single table.
+ */
+public class PaletteLut implements FlirToolkit.RowTransformer {
+    public static final int SIZE = 0x10000;
+    private static final int CACHE_SIZE = 16;
+    private static final Map<Key, PaletteLut> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PaletteLut> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final int[] colors = new int[SIZE];
+
+    private static class Key {
+        private final int[] palette;
+        private final int max, min, overColor, underColor, hash;
+
+        private Key(int[] palette, int max, int min, int overColor, int underColor) {
+            this.palette = palette.clone();
+            this.max = max;
+            this.min = min;
+            this.overColor = overColor;
+            this.underColor = underColor;
+            this.hash = 31 * (31 * (31 * (31 * Arrays.hashCode(palette) + max) + min) + overColor) + underColor;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && k.max == max && k.min == min && k.overColor == overColor
+                && k.underColor == underColor && Arrays.equals(k.palette, palette);
+        }
+    }
+
+    /**
+     * The (shared) table for the parameters - built on first use.
+     *
+     * @param palette colors
+     * @param max raw value (the last palette color)
+     * @param min raw value (the first palette color)
+     * @param overColor above the max
+     * @param underColor below the min
+     * @return the table
+     */
+    public static PaletteLut of(int[] palette, int max, int min, int overColor, int underColor) {
+        Key key = new Key(palette, max, min, overColor, underColor);
+        synchronized (cache) {
+            return cache.computeIfAbsent(key, PaletteLut::new);
+        }
+    }
+
+    private PaletteLut(Key key) {
+        float range = key.max - key.min * 1f;
+        int last = key.palette.length - 1;
+        float l;
+        for (int r = 0; r < SIZE; r++) {
+            l = (r - key.min * 1f) / range;
+            colors[r] = l < 0 ? key.underColor : l > 1 ? key.overColor : key.palette[(int) Math.round(last * (double) l)];
+        }
+    }
+
+    /**
+     * The color of a raw value.
+     *
+     * @param raw unsigned raw value (0 - 65535)
+     * @return the color
+     */
+    public int getColor(int raw) {
+        return colors[raw];
+    }
+
+    @Override
+    public void transform(int y, short[] raw, int offset, int[] out, int outOffset, int length) {
+        Kernels.lookup(raw, offset, colors, out, outOffset, length);
+    }
+
+}
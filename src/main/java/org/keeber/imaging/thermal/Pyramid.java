@@ -0,0 +1,303 @@
+package org.keeber.imaging.thermal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * A multi-resolution pyramid over the raw values of an image - each level halves the width and height of the
+ * one below (rounding up) by pooling 2x2 blocks of raw values (the min, max or area weighted mean). Levels are
+ * computed on first use from the level below - so a level costs a pass over the level below it, not over the
+ * full image.
+ *
+ * The pooled levels are still raw values so they render with the same transformers (and palette tables) as the
+ * full image. Each level also carries the area averaged temperature of every cell (the mean of the temperatures
+ * of the pixels it covers - whatever the pooling mode). Pixels without a temperature (outside of the calibration)
+ * are left out of the mean - a cell covering none of them has a NaN temperature.
+ */
+public class Pyramid {
+    private final FlirImage flir;
+    private final TemperatureLut lut;
+    @Getter private final Mode mode;
+    @Getter private final int depth;
+    private final List<Level> levels = new ArrayList<>();  // Level n at n - 1 (computed on first use)
+
+    /**
+     * How the raw values of a block are pooled into a cell.
+     */
+    public static enum Mode {
+        MIN, MAX, MEAN
+    }
+
+    /**
+     * A level of the pyramid (or a preview pooled from one).
+     */
+    public static class Level {
+        @Getter private final int width, height;
+        private final short[] raw;
+        private final float[] celsius;      // Area averaged temperature of each cell
+        private final int[] valid;          // Full image pixels with a temperature in each cell
+        private final int[] xSpan, ySpan;   // Full image pixels covered by each column / row
+
+        private Level(int width, int height, int[] xSpan, int[] ySpan) {
+            this.width = width;
+            this.height = height;
+            this.raw = new short[width * height];
+            this.celsius = new float[width * height];
+            this.valid = new int[width * height];
+            this.xSpan = xSpan;
+            this.ySpan = ySpan;
+        }
+
+        /**
+         * The pooled raw values (row by row) - this is the level's array, not a copy.
+         *
+         * @return unsigned 16bit raw values
+         */
+        public short[] getRawValues() {
+            return raw;
+        }
+
+        /**
+         * The area averaged temperature of a cell.
+         *
+         * @param x column
+         * @param y row
+         * @param unit of the temperature
+         * @return the temperature (NaN if none of the pixels of the cell has one)
+         */
+        public double getTemperature(int x, int y, FlirToolkit.Unit unit) {
+            return unit.fromCelsius(celsius[y * width + x]);
+        }
+
+        /**
+         * Writes the area averaged temperatures of the cells into the provided array - nothing is allocated.
+         *
+         * @param out of at least width * height
+         * @param unit of the temperatures
+         * @return the out array
+         */
+        public float[] getTemperatures(float[] out, FlirToolkit.Unit unit) {
+            if (out.length < celsius.length) {
+                throw new IllegalArgumentException("Output is too small for the values (" + out.length + " < " + celsius.length + ").");
+            }
+            for (int i = 0; i < celsius.length; i++) {
+                out[i] = (float) unit.fromCelsius(celsius[i]);
+            }
+            return out;
+        }
+
+        /**
+         * Renders the level into the provided array (one int per pixel, row by row) - nothing is allocated.
+         *
+         * @param transformer {@link org.keeber.imaging.thermal.FlirToolkit.RowTransformer}
+         * @param out of at least width * height
+         * @return the out array
+         */
+        public int[] render(FlirToolkit.RowTransformer transformer, int[] out) {
+            if (out.length < raw.length) {
+                throw new IllegalArgumentException("Output is too small for the level (" + out.length + " < " + raw.length + ").");
+            }
+            try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.RENDER).frame(width, height, -1)) {
+                for (int y = 0; y < height; y++) {
+                    transformer.transform(y, raw, y * width, out, y * width, width);
+                }
+            }
+            return out;
+        }
+
+        long footprint() {
+            return 64 + raw.length * 10L + (xSpan.length + ySpan.length) * 4L;
+        }
+    }
+
+    Pyramid(FlirImage flir, TemperatureLut lut, Mode mode) {
+        this.flir = flir;
+        this.lut = lut;
+        this.mode = mode;
+        int depth = 0;
+        for (int wd = flir.imageWd, ht = flir.imageHt; wd > 1 || ht > 1; wd = (wd + 1) / 2, ht = (ht + 1) / 2) {
+            depth++;
+        }
+        this.depth = depth;
+    }
+
+    /**
+     * A level of the pyramid - computed (with the levels below it) on first use.
+     *
+     * @param n level from 1 (half the image size) to the depth (a single cell)
+     * @return the level
+     */
+    public synchronized Level level(int n) {
+        if (n < 1 || n > depth) {
+            throw new IllegalArgumentException("Level " + n + " is not between 1 and " + depth + ".");
+        }
+        while (levels.size() < n) {
+            Level below = levels.isEmpty() ? null : levels.get(levels.size() - 1);
+            int wd = below == null ? flir.imageWd : below.width, ht = below == null ? flir.imageHt : below.height;
+            levels.add(pool(below, halves(wd), halves(ht)));
+        }
+        return levels.get(n - 1);
+    }
+
+    /**
+     * A preview of exactly the size - pooled from the smallest level that is at least the size (the level itself
+     * if it is the size). Previews are not cached.
+     *
+     * @param wd width (not more than the image width)
+     * @param ht height (not more than the image height)
+     * @return the preview
+     */
+    public Level preview(int wd, int ht) {
+        if (wd < 1 || ht < 1 || wd > flir.imageWd || ht > flir.imageHt) {
+            throw new IllegalArgumentException("Preview " + wd + "x" + ht + " is not within the image.");
+        }
+        Level source = null;
+        for (int n = 1, w = (flir.imageWd + 1) / 2, h = (flir.imageHt + 1) / 2; n <= depth && w >= wd && h >= ht; n++, w = (w + 1) / 2, h = (h + 1) / 2) {
+            source = level(n);
+        }
+        if (source != null && source.width == wd && source.height == ht) {
+            return source;
+        }
+        return pool(source, spans(source == null ? flir.imageWd : source.width, wd), spans(source == null ? flir.imageHt : source.height, ht));
+    }
+
+    long footprint() {
+        long bytes = 64;
+        synchronized (this) {
+            for (Level level : levels) {
+                bytes += level.footprint();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Bounds of cells pooling pairs of the source cells.
+     */
+    private static int[] halves(int length) {
+        int[] bounds = new int[(length + 1) / 2 + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = Math.min(2 * i, length);
+        }
+        return bounds;
+    }
+
+    /**
+     * Bounds of cells dividing the source cells evenly.
+     */
+    private static int[] spans(int length, int cells) {
+        int[] bounds = new int[cells + 1];
+        for (int i = 0; i <= cells; i++) {
+            bounds[i] = (int) ((long) i * length / cells);
+        }
+        return bounds;
+    }
+
+    /**
+     * Pools the source (the full image when null) into cells - cell (x, y) covers the source columns [xb[x],
+     * xb[x + 1]) and rows [yb[y], yb[y + 1]). Source cells are weighted by the full image pixels they cover.
+     */
+    private Level pool(Level source, int[] xb, int[] yb) {
+        int wd = xb.length - 1, ht = yb.length - 1;
+        int[] xSpan = new int[wd], ySpan = new int[ht];
+        for (int x = 0; x < wd; x++) {
+            for (int sx = xb[x]; sx < xb[x + 1]; sx++) {
+                xSpan[x] += source == null ? 1 : source.xSpan[sx];
+            }
+        }
+        for (int y = 0; y < ht; y++) {
+            for (int sy = yb[y]; sy < yb[y + 1]; sy++) {
+                ySpan[y] += source == null ? 1 : source.ySpan[sy];
+            }
+        }
+        Level level = new Level(wd, ht, xSpan, ySpan);
+        Pooler pooler = new Pooler(level, xb, yb, source);
+        if (source == null) {
+            flir.forEachRow((y, raw, offset) -> pooler.row(y, raw, offset));
+        } else {
+            for (int y = 0; y < source.height; y++) {
+                pooler.row(y, source.raw, y * source.width);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Accumulates the source rows (in order) of a row of cells - the row is written when its last source row is
+     * added. There are never more cells than source cells so every cell has at least one.
+     */
+    private class Pooler {
+        private final Level level;
+        private final int[] xb, yb;
+        private final Level source;
+        private final long[] sum, weight, valid;   // (valid - the weight of the samples with a temperature)
+        private final int[] extreme;
+        private final double[] celsius;
+        private int cy;
+
+        private Pooler(Level level, int[] xb, int[] yb, Level source) {
+            this.level = level;
+            this.xb = xb;
+            this.yb = yb;
+            this.source = source;
+            this.sum = new long[level.width];
+            this.weight = new long[level.width];
+            this.valid = new long[level.width];
+            this.extreme = new int[level.width];
+            this.celsius = new double[level.width];
+            reset();
+        }
+
+        private void reset() {
+            Arrays.fill(sum, 0);
+            Arrays.fill(weight, 0);
+            Arrays.fill(valid, 0);
+            Arrays.fill(extreme, mode == Mode.MIN ? 0xffff : 0);
+            Arrays.fill(celsius, 0);
+        }
+
+        private void row(int sy, short[] raw, int offset) {
+            int ySpan = source == null ? 1 : source.ySpan[sy];
+            for (int x = 0; x < level.width; x++) {
+                long s = 0, w = 0, n = 0;
+                int e = extreme[x];
+                double c = 0, t;
+                for (int sx = xb[x], v, a, k; sx < xb[x + 1]; sx++) {
+                    v = raw[offset + sx] & 0xffff;
+                    a = source == null ? 1 : source.xSpan[sx] * ySpan;
+                    s += (long) v * a;
+                    w += a;
+                    // Source cells are weighted by their pixels with a temperature (a NaN cell has none)
+                    if (source == null) {
+                        if (!Double.isNaN(t = lut.getCelsius(v))) {
+                            c += t;
+                            n++;
+                        }
+                    } else if ((k = source.valid[offset + sx]) > 0) {
+                        c += source.celsius[offset + sx] * k;
+                        n += k;
+                    }
+                    if (mode == Mode.MIN ? v < e : v > e) e = v;
+                }
+                sum[x] += s;
+                weight[x] += w;
+                valid[x] += n;
+                extreme[x] = e;
+                celsius[x] += c;
+            }
+            if (sy == yb[cy + 1] - 1) {
+                for (int x = 0, i = cy * level.width; x < level.width; x++, i++) {
+                    level.raw[i] = (short) (mode == Mode.MEAN ? (sum[x] + weight[x] / 2) / weight[x] : extreme[x]);
+                    level.celsius[i] = valid[x] == 0 ? Float.NaN : (float) (celsius[x] / valid[x]);
+                    level.valid[i] = (int) valid[x];
+                }
+                reset();
+                cy++;
+            }
+        }
+    }
+
+}
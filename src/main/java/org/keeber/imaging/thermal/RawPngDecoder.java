@@ -0,0 +1,122 @@
+package org.keeber.imaging.thermal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the 16bit grayscale PNG of a raw record (sub type PNG) straight into raw values - the IDAT chunks
+ * are inflated from the record in place, the row filters undone and the samples written in raw value order
+ * (the cameras store the samples byte swapped - so each PNG sample is read little endian).
+ *
+ * Only the format the cameras write is handled (16bit, grayscale, not interlaced) - anything else returns
+ * null so the caller can fall back to a general decoder.
+ */
+class RawPngDecoder {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452, IDAT = 0x49444154, IEND = 0x49454E44;
+
+    /**
+     * @param png the PNG content
+     * @param buffer to decode into if it is the right length (or null)
+     * @return the raw values - or null if the PNG is not 16bit grayscale (and not interlaced)
+     */
+    static short[] decode(ByteBuffer png, short[] buffer) throws IOException {
+        png = png.slice().order(ByteOrder.BIG_ENDIAN);
+        if (png.remaining() < 33 || png.getLong(0) != SIGNATURE || png.getInt(12) != IHDR) {
+            throw new IOException("Raw record does not contain a valid PNG.");
+        }
+        int wd = png.getInt(16), ht = png.getInt(20);
+        if (png.get(24) != 16 || png.get(25) != 0 || png.get(28) != 0) {
+            return null; // Bit depth, color type & interlace
+        }
+        short[] values = buffer != null && buffer.length == wd * ht ? buffer : new short[wd * ht];
+        int stride = wd * 2;
+        byte[] previous = new byte[stride + 1], current = new byte[stride + 1], swap;
+        Inflater inflater = new Inflater();
+        try {
+            int pos = 8;
+            for (int y = 0, i = 0; y < ht; y++) {
+                for (int n = 0; n < current.length; ) {
+                    int read = inflater.inflate(current, n, current.length - n);
+                    if (read == 0) {
+                        if (inflater.finished() || inflater.needsDictionary() || (pos = nextIdat(png, pos, inflater)) < 0) {
+                            throw new IOException("Raw record PNG is truncated (at row " + y + ").");
+                        }
+                    }
+                    n += read;
+                }
+                unfilter(current, previous);
+                for (int x = 1; x < current.length; x += 2) {
+                    values[i++] = (short) ((current[x] & 0xff) | (current[x + 1] << 8));
+                }
+                swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Raw record PNG could not be inflated.", e);
+        } finally {
+            inflater.end();
+        }
+        return values;
+    }
+
+    /**
+     * Sets the next IDAT chunk (after the position) as the inflater input.
+     *
+     * @return the position after the chunk - or -1 if there are no more
+     */
+    private static int nextIdat(ByteBuffer png, int pos, Inflater inflater) {
+        int length, type;
+        while (pos + 12 <= png.limit() && (type = png.getInt(pos + 4)) != IEND) {
+            length = png.getInt(pos);
+            if (length < 0 || pos + 12L + length > png.limit()) {
+                return -1;
+            }
+            pos += 12 + length; // Length, type, data & CRC
+            if (type == IDAT && length > 0) {
+                inflater.setInput(png.slice(pos - 4 - length, length));
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Undoes the filter of a row (the first byte is the filter type) - 2 bytes per pixel.
+     */
+    private static void unfilter(byte[] row, byte[] previous) throws IOException {
+        switch (row[0]) {
+            case 0:                                                     // None
+                break;
+            case 1:                                                     // Sub
+                for (int i = 3; i < row.length; i++) {
+                    row[i] += row[i - 2];
+                }
+                break;
+            case 2:                                                     // Up
+                for (int i = 1; i < row.length; i++) {
+                    row[i] += previous[i];
+                }
+                break;
+            case 3:                                                     // Average
+                for (int i = 1; i < row.length; i++) {
+                    row[i] += ((i > 2 ? row[i - 2] & 0xff : 0) + (previous[i] & 0xff)) >>> 1;
+                }
+                break;
+            case 4:                                                     // Paeth
+                for (int i = 1; i < row.length; i++) {
+                    int a = i > 2 ? row[i - 2] & 0xff : 0, b = previous[i] & 0xff, c = i > 2 ? previous[i - 2] & 0xff : 0;
+                    int p = a + b - c, pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                    row[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                }
+                break;
+            default:
+                throw new IOException("Raw record PNG has an invalid filter type (" + row[0] + ").");
+        }
+    }
+
+}
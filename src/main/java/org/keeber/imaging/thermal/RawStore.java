@@ -0,0 +1,116 @@
+package org.keeber.imaging.thermal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Off heap storage for raw values (and temperature planes) - so large numbers of frames can be held without
+ * growing the Java heap (or the time taken to collect it). See {@link FlirImage#store(RawStore)}.
+ *
+ * Two stores are provided: {@link #direct()} allocates each frame in native memory (released when the frame
+ * is no longer referenced) and {@link #mapped(Path)} allocates frames from a scratch file that is memory mapped
+ * in large blocks - the operating system pages the frames in and out.
+ */
+public abstract class RawStore {
+
+    /**
+     * @param bytes to allocate
+     * @return a buffer (native order, position 0)
+     */
+    protected abstract ByteBuffer allocateBytes(long bytes);
+
+    /**
+     * @param length number of raw values
+     * @return an (off heap) buffer for the raw values
+     */
+    public ShortBuffer allocate(int length) {
+        return allocateBytes(length * 2L).asShortBuffer();
+    }
+
+    /**
+     * @param length number of temperatures
+     * @return an (off heap) buffer for the temperatures
+     */
+    public FloatBuffer allocateFloats(int length) {
+        return allocateBytes(length * 4L).asFloatBuffer();
+    }
+
+    /**
+     * A store allocating each buffer in native memory.
+     *
+     * @return the store
+     */
+    public static RawStore direct() {
+        return new RawStore() {
+            @Override
+            protected ByteBuffer allocateBytes(long bytes) {
+                return ByteBuffer.allocateDirect(Math.toIntExact(bytes)).order(ByteOrder.nativeOrder());
+            }
+        };
+    }
+
+    /**
+     * A store allocating buffers from a file (created or truncated) - mapped a block at a time. The file is
+     * a scratch area, the buffers remain valid after the store is closed but no more can be allocated.
+     *
+     * @param file to store the values in
+     * @return the store
+     */
+    public static Mapped mapped(Path file) throws IOException {
+        return new Mapped(file, Mapped.BLOCK);
+    }
+
+    /**
+     * A store allocating buffers from a memory mapped file.
+     */
+    public static class Mapped extends RawStore implements Closeable {
+        private static final long BLOCK = 256L << 20;    // Mapped 256MB at a time
+        private final FileChannel channel;
+        private final long blockSize;
+        private ByteBuffer block;
+        private long size;
+
+        private Mapped(Path file, long blockSize) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        protected synchronized ByteBuffer allocateBytes(long bytes) {
+            try {
+                if (block == null || block.remaining() < bytes) {
+                    long length = Math.max(bytes, blockSize);
+                    block = channel.map(FileChannel.MapMode.READ_WRITE, size, length);
+                    size += length;
+                }
+                ByteBuffer buffer = block.slice(block.position(), Math.toIntExact(bytes)).order(ByteOrder.nativeOrder());
+                block.position(block.position() + (int) bytes);
+                return buffer;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map the store.", e);
+            }
+        }
+
+        /**
+         * @return the size of the file (the mapped blocks) in bytes
+         */
+        public synchronized long getSize() {
+            return size;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,384 @@
+package org.keeber.imaging.thermal;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * A region of interest (in image pixel coordinates) - a point, rectangle, ellipse or polygon. A pixel
+ * is in the region when its center is.
+ *
+ * Regions are measured with {@link FlirToolkit#measure(Roi)} against summed-area tables of the raw
+ * values (and temperatures), so the sum / mean of a rectangle is constant time (and of any other shape
+ * a lookup per row).
+ * The min / max (and hottest pixel) are found over the raw values on first use and converted to
+ * temperatures at the end.
+ */
+public abstract class Roi {
+
+    /**
+     * Receives the runs of pixels of a region (clipped to the image).
+     */
+    @FunctionalInterface
+    static interface Span {
+
+        /**
+         * @param y row
+         * @param x0 first column (inclusive)
+         * @param x1 last column (exclusive)
+         */
+        void accept(int y, int x0, int x1);
+    }
+
+    /**
+     * Walks the runs of pixels of this region - row by row.
+     *
+     * @param wd of the image
+     * @param ht of the image
+     * @param span receiving each run
+     */
+    abstract void spans(int wd, int ht, Span span);
+
+    /**
+     * @param x column
+     * @param y row
+     * @return a single pixel region
+     */
+    public static Roi point(int x, int y) {
+        return new Rect(x, y, 1, 1);
+    }
+
+    /**
+     * @param x left column
+     * @param y top row
+     * @param wd width in pixels
+     * @param ht height in pixels
+     * @return a rectangular region
+     */
+    public static Roi rect(int x, int y, int wd, int ht) {
+        if (wd < 0 || ht < 0) {
+            throw new IllegalArgumentException("Rectangle width and height must not be negative.");
+        }
+        return new Rect(x, y, wd, ht);
+    }
+
+    /**
+     * @param cx center (in pixels - the center of pixel 0 is 0.5)
+     * @param cy center (in pixels - the center of pixel 0 is 0.5)
+     * @param rx horizontal radius
+     * @param ry vertical radius
+     * @return an elliptical region
+     */
+    public static Roi ellipse(double cx, double cy, double rx, double ry) {
+        if (!(rx > 0) || !(ry > 0)) {
+            throw new IllegalArgumentException("Ellipse radii must be positive.");
+        }
+        return new Ellipse(cx, cy, rx, ry);
+    }
+
+    /**
+     * A polygon with the (even-odd) fill rule.
+     *
+     * @param xs vertex x coordinates (in pixels)
+     * @param ys vertex y coordinates (in pixels)
+     * @return a polygon region
+     */
+    public static Roi polygon(double[] xs, double[] ys) {
+        if (xs.length != ys.length || xs.length < 3) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices (with both coordinates).");
+        }
+        return new Polygon(xs.clone(), ys.clone());
+    }
+
+    static final class Rect extends Roi {
+        final int x, y, wd, ht;
+
+        private Rect(int x, int y, int wd, int ht) {
+            this.x = x;
+            this.y = y;
+            this.wd = wd;
+            this.ht = ht;
+        }
+
+        @Override
+        void spans(int wd, int ht, Span span) {
+            int x0 = Math.max(0, x), x1 = (int) Math.min(wd, (long) x + this.wd);
+            if (x0 >= x1) {
+                return;
+            }
+            for (int r = Math.max(0, y), r1 = (int) Math.min(ht, (long) y + this.ht); r < r1; r++) {
+                span.accept(r, x0, x1);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Rect[" + x + "," + y + "," + wd + "x" + ht + "]";
+        }
+    }
+
+    static final class Ellipse extends Roi {
+        final double cx, cy, rx, ry;
+
+        private Ellipse(double cx, double cy, double rx, double ry) {
+            this.cx = cx;
+            this.cy = cy;
+            this.rx = rx;
+            this.ry = ry;
+        }
+
+        @Override
+        void spans(int wd, int ht, Span span) {
+            int r0 = Math.max(0, (int) Math.floor(cy - ry)), r1 = Math.min(ht, (int) Math.ceil(cy + ry));
+            for (int r = r0; r < r1; r++) {
+                double dy = (r + 0.5 - cy) / ry;
+                if (dy * dy > 1) {
+                    continue;
+                }
+                double half = rx * Math.sqrt(1 - dy * dy);
+                int x0 = Math.max(0, (int) Math.ceil(cx - half - 0.5)), x1 = Math.min(wd, (int) Math.floor(cx + half - 0.5) + 1);
+                if (x0 < x1) {
+                    span.accept(r, x0, x1);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Ellipse[" + cx + "," + cy + "," + rx + "x" + ry + "]";
+        }
+    }
+
+    static final class Polygon extends Roi {
+        final double[] xs, ys;
+
+        private Polygon(double[] xs, double[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+        }
+
+        @Override
+        void spans(int wd, int ht, Span span) {
+            double top = Arrays.stream(ys).min().getAsDouble(), bottom = Arrays.stream(ys).max().getAsDouble();
+            int r0 = Math.max(0, (int) Math.floor(top)), r1 = Math.min(ht, (int) Math.ceil(bottom));
+            double[] crossings = new double[xs.length];
+            for (int r = r0; r < r1; r++) {
+                double yc = r + 0.5;
+                int n = 0;
+                for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                    if ((ys[i] > yc) != (ys[j] > yc)) {
+                        crossings[n++] = xs[i] + (yc - ys[i]) * (xs[j] - xs[i]) / (ys[j] - ys[i]);
+                    }
+                }
+                Arrays.sort(crossings, 0, n);
+                for (int k = 0; k + 1 < n; k += 2) {
+                    int x0 = Math.max(0, (int) Math.ceil(crossings[k] - 0.5)), x1 = Math.min(wd, (int) Math.ceil(crossings[k + 1] - 0.5));
+                    if (x0 < x1) {
+                        span.accept(r, x0, x1);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Polygon[" + xs.length + " vertices]";
+        }
+    }
+
+    /**
+     * Summed-area tables (integral images) of the raw values and of their temperatures - the sum of any 
+     * rectangle is 4 lookups. The temperatures are summed as well as the raw values because the raw to
+     * temperature function is not linear (the temperature of the mean raw value is not the mean temperature).
+     * Raw values without a temperature (outside of the calibration) are left out of the temperature sums, a
+     * third table counts the pixels that have one.
+     */
+    static final class Integral {
+        private final int wd;
+        private final long[] raw;           // (wd + 1) * (ht + 1) - [(y * (wd + 1)) + x] is the sum of the values above and left of (x, y)
+        private final double[] celsius;     // As above
+        private final int[] valid;          // As above - of the pixels with a temperature
+
+        Integral(FlirImage flir, TemperatureLut lut) {
+            int wd = this.wd = flir.imageWd, ht = flir.imageHt;
+            this.raw = new long[(wd + 1) * (ht + 1)];
+            this.celsius = new double[(wd + 1) * (ht + 1)];
+            this.valid = new int[(wd + 1) * (ht + 1)];
+            flir.forEachRow((y, values, offset) -> {
+                long row = 0;
+                double rowC = 0, c;
+                int rowV = 0;
+                for (int x = 0, above = y * (wd + 1), here = above + wd + 1, v; x < wd; x++) {
+                    v = values[offset + x] & 0xffff;
+                    row += v;
+                    if (!Double.isNaN(c = lut.getCelsius(v))) {
+                        rowC += c;
+                        rowV++;
+                    }
+                    raw[here + x + 1] = raw[above + x + 1] + row;
+                    celsius[here + x + 1] = celsius[above + x + 1] + rowC;
+                    valid[here + x + 1] = valid[above + x + 1] + rowV;
+                }
+            });
+        }
+
+        /**
+         * @return the size of the tables in bytes
+         */
+        long footprint() {
+            return 64 + raw.length * 20L;
+        }
+
+        /**
+         * @return the sum of the raw values in [x0, x1) x [y0, y1)
+         */
+        long sum(int x0, int y0, int x1, int y1) {
+            int stride = wd + 1;
+            return raw[y1 * stride + x1] - raw[y0 * stride + x1] - raw[y1 * stride + x0] + raw[y0 * stride + x0];
+        }
+
+        /**
+         * @return the sum of the temperatures (in Celsius) in [x0, x1) x [y0, y1) - of the pixels that have one
+         */
+        double sumCelsius(int x0, int y0, int x1, int y1) {
+            int stride = wd + 1;
+            return celsius[y1 * stride + x1] - celsius[y0 * stride + x1] - celsius[y1 * stride + x0] + celsius[y0 * stride + x0];
+        }
+
+        /**
+         * @return the number of pixels with a temperature in [x0, x1) x [y0, y1)
+         */
+        int countCelsius(int x0, int y0, int x1, int y1) {
+            int stride = wd + 1;
+            return valid[y1 * stride + x1] - valid[y0 * stride + x1] - valid[y1 * stride + x0] + valid[y0 * stride + x0];
+        }
+    }
+
+    /**
+     * The measurement of a region. Temperatures are in Celsius unless a unit is given. The count and mean
+     * are calculated up front; the min, max and hottest pixel on first use.
+     */
+    public static class Reading {
+        @Getter private final Roi roi;
+        @Getter private final int count;
+        @Getter private final long sum;                 // Of the raw values
+        private final double sumCelsius;
+        private final int countCelsius;                 // Pixels with a temperature
+        private final TemperatureLut lut;
+        private final ShortBuffer raw;
+        private final int wd, ht;
+        private int minRaw = -1, maxRaw = -1, hotX = -1, hotY = -1;
+        private boolean scanned;
+
+        Reading(Roi roi, int count, long sum, double sumCelsius, int countCelsius, TemperatureLut lut, ShortBuffer raw, int wd, int ht) {
+            this.roi = roi;
+            this.count = count;
+            this.sum = sum;
+            this.sumCelsius = sumCelsius;
+            this.countCelsius = countCelsius;
+            this.lut = lut;
+            this.raw = raw;
+            this.wd = wd;
+            this.ht = ht;
+        }
+
+        private synchronized void scan() {
+            if (scanned || count == 0) {
+                return;
+            }
+            int[] found = {Integer.MAX_VALUE, -1, -1, -1}; // min, max, x, y
+            roi.spans(wd, ht, (y, x0, x1) -> {
+                for (int x = x0, i = y * wd + x0; x < x1; x++, i++) {
+                    int v = raw.get(i) & 0xffff;
+                    if (v < found[0]) {
+                        found[0] = v;
+                    }
+                    if (v > found[1]) {
+                        found[1] = v;
+                        found[2] = x;
+                        found[3] = y;
+                    }
+                }
+            });
+            minRaw = found[0];
+            maxRaw = found[1];
+            hotX = found[2];
+            hotY = found[3];
+            scanned = true;
+        }
+
+        /**
+         * @return the mean raw value (NaN for an empty region)
+         */
+        public double getMeanRaw() {
+            return count == 0 ? Double.NaN : sum / (double) count;
+        }
+
+        /**
+         * @return the min raw value (-1 for an empty region)
+         */
+        public int getMinRaw() {
+            scan();
+            return minRaw;
+        }
+
+        /**
+         * @return the max raw value (-1 for an empty region)
+         */
+        public int getMaxRaw() {
+            scan();
+            return maxRaw;
+        }
+
+        /**
+         * @return the column of the hottest pixel (-1 for an empty region)
+         */
+        public int getHotX() {
+            scan();
+            return hotX;
+        }
+
+        /**
+         * @return the row of the hottest pixel (-1 for an empty region)
+         */
+        public int getHotY() {
+            scan();
+            return hotY;
+        }
+
+        public double getMin() {
+            return getMin(FlirToolkit.Unit.CELSIUS);
+        }
+
+        public double getMax() {
+            return getMax(FlirToolkit.Unit.CELSIUS);
+        }
+
+        public double getMean() {
+            return getMean(FlirToolkit.Unit.CELSIUS);
+        }
+
+        public double getMin(FlirToolkit.Unit unit) {
+            return count == 0 ? Double.NaN : lut.getTemperature(getMinRaw(), unit);
+        }
+
+        public double getMax(FlirToolkit.Unit unit) {
+            return count == 0 ? Double.NaN : lut.getTemperature(getMaxRaw(), unit);
+        }
+
+        /**
+         * @param unit of the temperature
+         * @return the mean temperature of the pixels with a temperature (NaN if there are none)
+         */
+        public double getMean(FlirToolkit.Unit unit) {
+            return countCelsius == 0 ? Double.NaN : unit.fromCelsius(sumCelsius / countCelsius);
+        }
+
+        @Override
+        public String toString() {
+            return roi + ": " + count + " pixels, min " + getMin() + ", max " + getMax() + " (at " + getHotX() + "," + getHotY() + "), mean " + getMean();
+        }
+    }
+
+}
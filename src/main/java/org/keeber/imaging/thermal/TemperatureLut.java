@@ -0,0 +1,331 @@
+package org.keeber.imaging.thermal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import lombok.Getter;
+
+/**
+ * A precomputed raw value to temperature table. Raw values are unsigned 16bit so the whole
+ * conversion (the formula from {@link https://rdrr.io/cran/Thermimage/src/R/raw2temp.R} - see
+ * {@link TemperatureModel}) fits in 65536 entries.
+ *
+ * Tables are cached by their {@link Calibration} - every image taken with the same camera and
+ * settings shares a single table.
+ */
+public class TemperatureLut {
+    public static final int SIZE = 0x10000;
+    private static final int CACHE_SIZE = 32;
+    private static final Map<Calibration, CompletableFuture<TemperatureLut>> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Calibration, CompletableFuture<TemperatureLut>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    @Getter private final Calibration calibration;
+    private final double[] celsius = new double[SIZE];
+    private final float[][] floats = new float[FlirToolkit.Unit.values().length][];   // By unit (built on first use)
+    private int[] centiKelvin;                                                          // (built on first use)
+
+    /**
+     * The Camera record properties required to calculate temperatures from raw values.
+     */
+    public static record Calibration(
+        double emissivity, double objectDistance,
+        double reflectedApparentTemperature, double atmosphericTemperature,
+        double irWindowTransmission, double relativeHumidity,
+        double planckR1, double planckB, double planckF, double planckO, double planckR2,
+        double atmosphericTransAlpha1, double atmosphericTransAlpha2,
+        double atmosphericTransBeta1, double atmosphericTransBeta2,
+        double atmosphericTransX) {
+
+        public static Calibration of(FlirImage flir) {
+            return new Calibration(
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.Emissivity),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.ObjectDistance),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.ReflectedApparentTemperature),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTemperature),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.IRWindowTransmission),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.RelativeHumidity),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckR1),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckB),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckF),
+                flir.getInt(FlirFormat.FlirRecord.Camera.Properties.PlanckO),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.PlanckR2),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransAlpha1),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransAlpha2),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransBeta1),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransBeta2),
+                flir.getFloat(FlirFormat.FlirRecord.Camera.Properties.AtmosphericTransX)
+            );
+        }
+    }
+
+    /**
+     * The (shared) table for the calibration of the provided image.
+     *
+     * @param flir image
+     * @return the table
+     */
+    public static TemperatureLut of(FlirImage flir) {
+        return of(Calibration.of(flir));
+    }
+
+    /**
+     * The (shared) table for the provided calibration - built on first use. The table is built outside of the
+     * cache lock (by the first caller, later callers for the same calibration wait for it) so a build does not
+     * block lookups of other calibrations.
+     *
+     * @param calibration parameters
+     * @return the table
+     */
+    public static TemperatureLut of(Calibration calibration) {
+        CompletableFuture<TemperatureLut> future, building = null;
+        synchronized (cache) {
+            if ((future = cache.get(calibration)) == null) {
+                cache.put(calibration, future = building = new CompletableFuture<>());
+            }
+        }
+        if (building != null) {
+            try {
+                building.complete(new TemperatureLut(calibration));
+            } catch (RuntimeException | Error e) {
+                synchronized (cache) {
+                    cache.remove(calibration, building);
+                }
+                building.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return future.join();
+    }
+
+    private TemperatureLut(Calibration c) {
+        this.calibration = c;
+        TemperatureModel model = TemperatureModel.of(c);
+        for (int r = 0; r < SIZE; r++) {
+            celsius[r] = model.getCelsius(r, c.emissivity());
+        }
+    }
+
+    /**
+     * The temperature of a raw value in Celcius.
+     *
+     * @param raw unsigned raw value (0 - 65535)
+     * @return temperature in Celcius
+     */
+    public double getCelsius(int raw) {
+        return celsius[raw];
+    }
+
+    /**
+     * The temperature of a raw value in Celcius or Fahrenheit.
+     *
+     * @param raw unsigned raw value (0 - 65535)
+     * @param fahrenheit otherwise Celcius
+     * @return temperature in Fahrenheit or Celcius
+     */
+    public double getTemperature(int raw, boolean fahrenheit) {
+        return fahrenheit ? celsius[raw] * (9d/5d) + 32 : celsius[raw];
+    }
+
+    /**
+     * The temperature of a raw value in the unit.
+     *
+     * @param raw unsigned raw value (0 - 65535)
+     * @param unit of the temperature
+     * @return temperature
+     */
+    public double getTemperature(int raw, FlirToolkit.Unit unit) {
+        return unit.fromCelsius(celsius[raw]);
+    }
+
+    /**
+     * The lowest raw value with a temperature of at least the threshold - the formula is monotonic in the raw
+     * value so `raw >= rawAtLeast(t)` is the same test as `temperature >= t` (without converting the raw value).
+     * Raw values without a temperature are below every threshold.
+     *
+     * @param threshold temperature
+     * @param unit of the threshold
+     * @return the raw value - or {@link #SIZE} if no raw value reaches the threshold
+     */
+    public int rawAtLeast(double threshold, FlirToolkit.Unit unit) {
+        int lo = 0, hi = SIZE, mid;
+        while (lo < hi) {
+            mid = (lo + hi) >>> 1;
+            if (unit.fromCelsius(celsius[mid]) >= threshold) {   // (false for NaN)
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The temperature of a raw value in centi-Kelvin (hundredths of a degree Kelvin, rounded) - or 0 if
+     * the raw value has no temperature (it is outside of the calibration).
+     *
+     * @param raw unsigned raw value (0 - 65535)
+     * @return temperature in centi-Kelvin
+     */
+    public int getCentiKelvin(int raw) {
+        return centiKelvin()[raw];
+    }
+
+    /**
+     * Converts raw values to temperatures.
+     *
+     * @param raw unsigned raw values
+     * @param out for the temperatures (at least as long as raw)
+     * @param unit of the temperatures
+     * @return out
+     */
+    public double[] apply(short[] raw, double[] out, FlirToolkit.Unit unit) {
+        checkLength(raw, out.length);
+        apply(raw, 0, out, 0, raw.length, unit);
+        return out;
+    }
+
+    /**
+     * Converts a run of raw values to temperatures.
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first raw value
+     * @param out for the temperatures
+     * @param outOffset of the first temperature
+     * @param length number of values
+     * @param unit of the temperatures
+     */
+    public void apply(short[] raw, int offset, double[] out, int outOffset, int length, FlirToolkit.Unit unit) {
+        if (unit == FlirToolkit.Unit.CELSIUS) {
+            for (int i = 0; i < length; i++) {
+                out[outOffset + i] = celsius[raw[offset + i] & 0xffff];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                out[outOffset + i] = unit.fromCelsius(celsius[raw[offset + i] & 0xffff]);
+            }
+        }
+    }
+
+    /**
+     * Converts raw values to temperatures (as floats).
+     *
+     * @param raw unsigned raw values
+     * @param out for the temperatures (at least as long as raw)
+     * @param unit of the temperatures
+     * @return out
+     */
+    public float[] apply(short[] raw, float[] out, FlirToolkit.Unit unit) {
+        checkLength(raw, out.length);
+        apply(raw, 0, out, 0, raw.length, unit);
+        return out;
+    }
+
+    /**
+     * Converts a run of raw values to temperatures (as floats).
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first raw value
+     * @param out for the temperatures
+     * @param outOffset of the first temperature
+     * @param length number of values
+     * @param unit of the temperatures
+     */
+    public void apply(short[] raw, int offset, float[] out, int outOffset, int length, FlirToolkit.Unit unit) {
+        Kernels.lookup(raw, offset, floats(unit), out, outOffset, length);
+    }
+
+    /**
+     * Converts raw values to centi-Kelvin temperatures (see {@link #getCentiKelvin(int)}).
+     *
+     * @param raw unsigned raw values
+     * @param out for the temperatures (at least as long as raw)
+     * @return out
+     */
+    public int[] applyCentiKelvin(short[] raw, int[] out) {
+        checkLength(raw, out.length);
+        applyCentiKelvin(raw, 0, out, 0, raw.length);
+        return out;
+    }
+
+    /**
+     * Converts a run of raw values to centi-Kelvin temperatures (see {@link #getCentiKelvin(int)}).
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first raw value
+     * @param out for the temperatures
+     * @param outOffset of the first temperature
+     * @param length number of values
+     */
+    public void applyCentiKelvin(short[] raw, int offset, int[] out, int outOffset, int length) {
+        Kernels.lookup(raw, offset, centiKelvin(), out, outOffset, length);
+    }
+
+    /**
+     * Converts raw values to centi-Kelvin temperatures (see {@link #getCentiKelvin(int)}) stored as unsigned 
+     * shorts - temperatures above 655.35K (382.2°C) are clamped to 65535.
+     *
+     * @param raw unsigned raw values
+     * @param out for the temperatures (at least as long as raw)
+     * @return out
+     */
+    public short[] applyCentiKelvin(short[] raw, short[] out) {
+        checkLength(raw, out.length);
+        applyCentiKelvin(raw, 0, out, 0, raw.length);
+        return out;
+    }
+
+    /**
+     * Converts a run of raw values to centi-Kelvin temperatures stored as unsigned shorts (see 
+     * {@link #applyCentiKelvin(short[], short[])}).
+     *
+     * @param raw unsigned raw values
+     * @param offset of the first raw value
+     * @param out for the temperatures
+     * @param outOffset of the first temperature
+     * @param length number of values
+     */
+    public void applyCentiKelvin(short[] raw, int offset, short[] out, int outOffset, int length) {
+        int[] table = centiKelvin();
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = (short) Math.min(0xffff, table[raw[offset + i] & 0xffff]);
+        }
+    }
+
+    private static void checkLength(short[] raw, int length) {
+        if (length < raw.length) {
+            throw new IllegalArgumentException("Output is too small for the values (" + length + " < " + raw.length + ").");
+        }
+    }
+
+    /**
+     * The (shared) table of the temperatures in the unit - built on first use.
+     */
+    synchronized float[] floats(FlirToolkit.Unit unit) {
+        float[] table = floats[unit.ordinal()];
+        if (table == null) {
+            table = floats[unit.ordinal()] = new float[SIZE];
+            for (int r = 0; r < SIZE; r++) {
+                table[r] = (float) unit.fromCelsius(celsius[r]);
+            }
+        }
+        return table;
+    }
+
+    private synchronized int[] centiKelvin() {
+        if (centiKelvin == null) {
+            int[] table = new int[SIZE];
+            for (int r = 0; r < SIZE; r++) {
+                double k = FlirToolkit.Unit.KELVIN.fromCelsius(celsius[r]) * 100;
+                table[r] = Double.isNaN(k) ? 0 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(k)));
+            }
+            centiKelvin = table;
+        }
+        return centiKelvin;
+    }
+
+}
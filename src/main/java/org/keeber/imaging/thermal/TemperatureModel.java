@@ -0,0 +1,219 @@
+package org.keeber.imaging.thermal;
+
+import lombok.Getter;
+
+/**
+ * The raw value to temperature formula (from {@link https://rdrr.io/cran/Thermimage/src/R/raw2temp.R}) compiled
+ * from a {@link TemperatureLut.Calibration} - with the emissivity left free. Every term of the formula except the
+ * reflected radiance is divided by the emissivity so the object radiance is
+ *
+ *     obj = (raw * gain - offset - (1 - E) * rawRefl1) / E
+ *
+ * where the gain, offset and reflected radiance (rawRefl1) are fixed by the calibration and computed once here.
+ * Each emissivity adds only its pair of constants (1 / E and the offset) - and the conversion of a map (see
+ * {@link #apply(FlirImage, Tables, float[])}) is a lookup per pixel in a table per emissivity. The tables of a map
+ * are built into a {@link Tables} holder that the caller keeps (and reuses across frames) for as long as it needs
+ * them - the model holds none, and the default emissivity uses the shared {@link TemperatureLut} table.
+ *
+ * A model is immutable and can be shared between threads and frames.
+ */
+public final class TemperatureModel {
+    @Getter private final TemperatureLut.Calibration calibration;
+    private final double gain, offset, rawRefl1;
+    private final double PR1, PB, PF, PO, PR2;
+
+    /**
+     * The temperature tables of the emissivities of a map in a unit (see {@link TemperatureModel#tables(EmissivityMap, FlirToolkit.Unit)})
+     * - 256KB per emissivity of the map (the default emissivity shares the table of the {@link TemperatureLut}).
+     * Immutable - can be shared between threads and reused across frames.
+     */
+    public static final class Tables {
+        @Getter private final EmissivityMap map;
+        @Getter private final FlirToolkit.Unit unit;
+        private final float[][] tables;     // By class of the map
+
+        private Tables(EmissivityMap map, FlirToolkit.Unit unit, float[][] tables) {
+            this.map = map;
+            this.unit = unit;
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * The model for the calibration of the image.
+     *
+     * @param flir image
+     * @return the model
+     */
+    public static TemperatureModel of(FlirImage flir) {
+        return of(TemperatureLut.Calibration.of(flir));
+    }
+
+    /**
+     * @param calibration parameters (the emissivity is the default of the model)
+     * @return the model
+     */
+    public static TemperatureModel of(TemperatureLut.Calibration calibration) {
+        return new TemperatureModel(calibration);
+    }
+
+    private TemperatureModel(TemperatureLut.Calibration c) {
+        this.calibration = c;
+        // From https://rdrr.io/cran/Thermimage/src/R/raw2temp.R
+        double OD =     c.objectDistance();                             // Object distance in metres
+        double RTemp =  c.reflectedApparentTemperature() - 273.15;      // Apparent reflected temperature - one value from FLIR file (oC), default 20C
+        double ATemp =  c.atmosphericTemperature() - 273.15;            // Atmospheric temperature for tranmission loss - one value from FLIR file (oC) - default = RTemp
+        double IRT =    c.irWindowTransmission();                       // Infrared Window transmission - default 1.  likely ~0.95-0.96. Should be empirically determined.
+        //
+        double RH =     c.relativeHumidity() * 100;                     // Relative humidity - default 50% // this is a float in out values.
+        //
+        PR1 =           c.planckR1();                                   // Constant (FLIR)
+        PB =            c.planckB();                                    // Constant (FLIR)
+        PF =            c.planckF();                                    // Constant (FLIR)
+        PO =            c.planckO();                                    // Constant (FLIR)
+        PR2 =           c.planckR2();                                   // Constant (FLIR)
+        //
+        double emissWind = 1 - IRT;
+        double reflWind = 0;
+        double h2o = (RH/100)*Math.exp(1.5587+0.06939*(ATemp)-0.00027816*Math.pow(ATemp, 2)+0.00000068455*Math.pow(ATemp, 3));
+        //
+        double ATA1 =   c.atmosphericTransAlpha1();                     // Constant
+        double ATA2 =   c.atmosphericTransAlpha2();                     // Constant
+        double ATB1 =   c.atmosphericTransBeta1();                      // Constant
+        double ATB2 =   c.atmosphericTransBeta2();                      // Constant
+        double ATX =    c.atmosphericTransX();                          // Constant
+        //
+        double tau1=ATX*Math.exp(-Math.sqrt(OD/2)*(ATA1+ATB1*Math.sqrt(h2o)))+(1-ATX)*Math.exp(-Math.sqrt(OD/2)*(ATA2+ATB2*Math.sqrt(h2o)));
+        double tau2=ATX*Math.exp(-Math.sqrt(OD/2)*(ATA1+ATB1*Math.sqrt(h2o)))+(1-ATX)*Math.exp(-Math.sqrt(OD/2)*(ATA2+ATB2*Math.sqrt(h2o)));
+        //
+        double rawRefl1=PR1/(PR2*(Math.exp(PB/(RTemp+273.15))-PF))-PO;                                                      // # Radiance reflecting off the object before the window
+        double rawAtm1=PR1/(PR2*(Math.exp(PB/(ATemp+273.15))-PF))-PO;                                                       // # Radiance from the atmosphere (before the window)
+        double IRWTemp = RTemp;                                                                                             // I don't know why the lib does this but it does
+        double rawWind=PR1/(PR2*(Math.exp(PB/(IRWTemp+273.15))-PF))-PO;
+        double rawRefl2=PR1/(PR2*(Math.exp(PB/(RTemp+273.15))-PF))-PO ;
+        double rawAtm2=PR1/(PR2*(Math.exp(PB/(ATemp+273.15))-PF))-PO;
+        //
+        // The attenuated radiances (rawAtm1Attn etc) without the division by the emissivity
+        this.gain = 1/tau1/IRT/tau2;
+        this.offset = (1-tau1)/tau1*rawAtm1 + (1-tau2)/tau1/IRT/tau2*rawAtm2 + emissWind/tau1/IRT*rawWind + reflWind/tau1/IRT*rawRefl2;
+        this.rawRefl1 = rawRefl1;
+    }
+
+    /**
+     * @return the emissivity of the calibration (of pixels outside of every region of a map)
+     */
+    public double getEmissivity() {
+        return calibration.emissivity();
+    }
+
+    /**
+     * The temperature of a raw value at an emissivity in Celsius.
+     *
+     * @param raw unsigned raw value (0 - 65535)
+     * @param emissivity of the surface
+     * @return temperature in Celsius
+     */
+    public double getCelsius(int raw, double emissivity) {
+        return celsius(raw, 1 / emissivity, offset + (1 - emissivity) * rawRefl1);
+    }
+
+    private double celsius(int raw, double inverseE, double offsetE) {
+        double obj = (raw * gain - offsetE) * inverseE;
+        return PB/Math.log(PR1/(PR2*(obj+PO))+PF) - 273.15;
+    }
+
+    /**
+     * @param other calibration
+     * @return true if the calibration has the Planck constants (R1, R2, B, F and O) of the model
+     */
+    boolean isCompatible(TemperatureLut.Calibration other) {
+        return other.planckR1() == calibration.planckR1() && other.planckR2() == calibration.planckR2()
+            && other.planckB() == calibration.planckB() && other.planckF() == calibration.planckF()
+            && other.planckO() == calibration.planckO();
+    }
+
+    /**
+     * The table of temperatures at the emissivity.
+     *
+     * @param emissivity of the surface
+     * @param unit of the temperatures
+     * @return the temperature of each raw value
+     */
+    float[] table(double emissivity, FlirToolkit.Unit unit) {
+        double inverseE = 1 / emissivity, offsetE = offset + (1 - emissivity) * rawRefl1;
+        float[] table = new float[TemperatureLut.SIZE];
+        for (int r = 0; r < table.length; r++) {
+            table[r] = (float) unit.fromCelsius(celsius(r, inverseE, offsetE));
+        }
+        return table;
+    }
+
+    /**
+     * Builds the temperature tables of the emissivities of the map - to be kept by the caller and reused for
+     * every frame converted with the map.
+     *
+     * @param map of emissivities
+     * @param unit of the temperatures
+     * @return the tables
+     */
+    public Tables tables(EmissivityMap map, FlirToolkit.Unit unit) {
+        double[] emissivities = map.emissivities();
+        float[][] tables = new float[emissivities.length][];
+        tables[0] = TemperatureLut.of(calibration).floats(unit);
+        for (int i = 1; i < tables.length; i++) {
+            tables[i] = table(emissivities[i], unit);
+        }
+        return new Tables(map, unit, tables);
+    }
+
+    /**
+     * Writes the temperatures of the image into the provided array - each pixel at the emissivity of the map
+     * (pixels outside of every region at the emissivity of the model). This builds the tables of the map on
+     * every call - use {@link #apply(FlirImage, Tables, float[])} to convert more than one frame.
+     *
+     * @param flir image (the size of the map)
+     * @param map of emissivities
+     * @param out of at least width * height
+     * @param unit of the temperatures
+     * @return the out array
+     */
+    public float[] apply(FlirImage flir, EmissivityMap map, float[] out, FlirToolkit.Unit unit) {
+        return apply(flir, tables(map, unit), out);
+    }
+
+    /**
+     * Writes the temperatures of the image into the provided array - each pixel at the emissivity of the map of
+     * the tables (pixels outside of every region at the emissivity of the model). Nothing is allocated.
+     *
+     * The image must be from a camera with the Planck constants of the model - the emissivity, distance,
+     * reflected temperature etc of the image can differ (the model's are used).
+     *
+     * @param flir image (the size of the map)
+     * @param tables of the map (from {@link #tables(EmissivityMap, FlirToolkit.Unit)})
+     * @param out of at least width * height
+     * @return the out array
+     */
+    public float[] apply(FlirImage flir, Tables tables, float[] out) {
+        if (!isCompatible(TemperatureLut.Calibration.of(flir))) {
+            throw new IllegalArgumentException("Image is from a camera with other Planck constants than the model.");
+        }
+        EmissivityMap map = tables.map;
+        if (map.getWidth() != flir.imageWd || map.getHeight() != flir.imageHt) {
+            throw new IllegalArgumentException("Map " + map.getWidth() + "x" + map.getHeight() + " is not the size of the image.");
+        }
+        if (out.length < flir.rawLength()) {
+            throw new IllegalArgumentException("Output is too small for the values (" + out.length + " < " + flir.rawLength() + ").");
+        }
+        float[][] lookup = tables.tables;
+        byte[] classes = map.classes();
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.TEMPERATURE).frame(flir)) {
+            flir.forEachRun((raw, offset, index, length) -> {
+                for (int i = 0; i < length; i++) {
+                    out[index + i] = lookup[classes[index + i] & 0xff][raw[offset + i] & 0xffff];
+                }
+            });
+        }
+        return out;
+    }
+
+}
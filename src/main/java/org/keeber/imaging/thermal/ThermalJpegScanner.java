@@ -0,0 +1,162 @@
+package org.keeber.imaging.thermal;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.keeber.imaging.thermal.FlirImage.FlirImageException;
+
+/**
+ * Extracts the FFF content from a thermal JPEG by walking the JPEG markers. Only the segment headers
+ * are read - the bodies of other segments are skipped and the walk stops at the start of scan (so
+ * none of the entropy coded image data is touched).
+ *
+ * The FFF content is split over one or more APP1 segments (starting "FLIR\0") which carry their index
+ * and the index of the last segment, these are reassembled in index order (once every segment is present).
+ */
+public class ThermalJpegScanner {
+    private static final byte[] FLIR = "FLIR".getBytes(StandardCharsets.US_ASCII);
+
+    private static record Segment(int index, int last, ByteBuffer data) {}
+
+    /**
+     * Read the FFF content from a JPEG stream. The stream is read up to the start of scan and is not
+     * closed.
+     *
+     * @param is JPEG stream
+     * @return the FFF content
+     */
+    public static ByteBuffer scan(InputStream is) throws IOException, FlirImageException {
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.SCAN)) {
+            return scan(is, span);
+        }
+    }
+
+    private static ByteBuffer scan(InputStream is, FlirMetrics.Span span) throws IOException, FlirImageException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readUnsignedByte() != 0xff || in.readUnsignedByte() != FlirFormat.ThermalJpeg.Marker.SOI) {
+            throw new FlirImageException("Content does not appear to be a valid JPEG.");
+        }
+        List<Segment> segments = new ArrayList<>();
+        int marker, len;
+        byte[] header = new byte[FlirFormat.ThermalJpeg.Index.APP1HEADER];
+        while ((marker = nextMarker(in)) != FlirFormat.ThermalJpeg.Marker.SOS && marker != FlirFormat.ThermalJpeg.Marker.EOI) {
+            if (isStandalone(marker)) {
+                continue;
+            }
+            len = in.readUnsignedShort() - 2;
+            if (marker == FlirFormat.ThermalJpeg.Marker.APP1 && len >= header.length) {
+                in.readFully(header);
+                len -= header.length;
+                if (isFlir(ByteBuffer.wrap(header))) {
+                    byte[] data = new byte[len];
+                    in.readFully(data);
+                    segments.add(new Segment(index(ByteBuffer.wrap(header)), last(ByteBuffer.wrap(header)), ByteBuffer.wrap(data)));
+                    continue;
+                }
+            }
+            in.skipNBytes(len);
+        }
+        return assemble(segments, span);
+    }
+
+    /**
+     * Read the FFF content from a JPEG in a buffer. A single segment is returned as a slice of the
+     * buffer, multiple segments are concatenated.
+     *
+     * @param jpeg buffer
+     * @return the FFF content
+     */
+    public static ByteBuffer scan(ByteBuffer jpeg) throws FlirImageException {
+        try (FlirMetrics.Span span = FlirMetrics.start(FlirMetrics.Stage.SCAN)) {
+            return scan(jpeg, span);
+        }
+    }
+
+    private static ByteBuffer scan(ByteBuffer jpeg, FlirMetrics.Span span) throws FlirImageException {
+        if (jpeg.limit() < 2 || (jpeg.get(0) & 0xff) != 0xff || (jpeg.get(1) & 0xff) != FlirFormat.ThermalJpeg.Marker.SOI) {
+            throw new FlirImageException("Content does not appear to be a valid JPEG.");
+        }
+        List<Segment> segments = new ArrayList<>();
+        int pos = 2, marker, len;
+        while (pos + 2 <= jpeg.limit()) {
+            if ((jpeg.get(pos) & 0xff) != 0xff) {
+                throw new FlirImageException("Invalid JPEG marker at offset " + pos + ".");
+            }
+            if ((marker = jpeg.get(pos + 1) & 0xff) == 0xff) {
+                pos++; continue; // Fill byte
+            }
+            if (marker == FlirFormat.ThermalJpeg.Marker.SOS || marker == FlirFormat.ThermalJpeg.Marker.EOI) {
+                break;
+            }
+            if (isStandalone(marker)) {
+                pos += 2; continue;
+            }
+            if (pos + 4 > jpeg.limit() || pos + 2 + (len = Short.toUnsignedInt(jpeg.getShort(pos + 2))) > jpeg.limit()) {
+                throw new FlirImageException("Truncated JPEG segment at offset " + pos + ".");
+            }
+            if (marker == FlirFormat.ThermalJpeg.Marker.APP1 && len - 2 >= FlirFormat.ThermalJpeg.Index.APP1HEADER) {
+                ByteBuffer header = jpeg.slice(pos + 4, FlirFormat.ThermalJpeg.Index.APP1HEADER);
+                if (isFlir(header)) {
+                    segments.add(new Segment(index(header), last(header), jpeg.slice(pos + 4 + header.capacity(), len - 2 - header.capacity())));
+                }
+            }
+            pos += 2 + len;
+        }
+        return assemble(segments, span);
+    }
+
+    private static int nextMarker(DataInputStream in) throws IOException, FlirImageException {
+        if (in.readUnsignedByte() != 0xff) {
+            throw new FlirImageException("Invalid JPEG marker.");
+        }
+        int marker;
+        while ((marker = in.readUnsignedByte()) == 0xff); // Fill bytes
+        return marker;
+    }
+
+    private static boolean isStandalone(int marker) {
+        return marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7); // TEM & RSTn have no length
+    }
+
+    private static boolean isFlir(ByteBuffer header) {
+        return ByteBuffer.wrap(FLIR).equals(header.slice(0, FLIR.length));
+    }
+
+    private static int index(ByteBuffer header) {
+        return header.get(FlirFormat.ThermalJpeg.Index.APP1SEGMENT) & 0xff;
+    }
+
+    private static int last(ByteBuffer header) {
+        return header.get(FlirFormat.ThermalJpeg.Index.APP1SEGMENTS) & 0xff;
+    }
+
+    private static ByteBuffer assemble(List<Segment> segments, FlirMetrics.Span span) throws FlirImageException {
+        if (segments.isEmpty()) {
+            throw new FlirImageException("No thermal data present in file.");
+        }
+        int last = segments.get(0).last();
+        if (segments.size() != last + 1 || segments.stream().anyMatch(s -> s.last() != last)) {
+            throw new FlirImageException("Thermal data is incomplete (" + segments.size() + " of " + (last + 1) + " segments present).");
+        }
+        segments.sort(Comparator.comparingInt(Segment::index));
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i).index() != i) {
+                throw new FlirImageException("Thermal data is corrupt (segment " + i + " of " + (last + 1) + " is missing or duplicated).");
+            }
+        }
+        span.records(segments.size()).bytes(segments.stream().mapToLong(s -> s.data().remaining()).sum());
+        if (segments.size() == 1) {
+            return segments.get(0).data();
+        }
+        ByteBuffer fff = ByteBuffer.allocate(segments.stream().mapToInt(s -> s.data().remaining()).sum());
+        segments.forEach(s -> fff.put(s.data()));
+        return fff.flip();
+    }
+
+}
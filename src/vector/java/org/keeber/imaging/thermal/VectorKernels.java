@@ -0,0 +1,97 @@
+package org.keeber.imaging.thermal;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementations of the {@link Kernels} using the (incubating) Vector API - only loaded when the
+ * jdk.incubator.vector module is present. Unsigned raw values are widened to int lanes (or compared with
+ * the sign bit flipped) so the results are identical to the scalar kernels.
+ *
+ * This is the only class that uses the incubating module - it is compiled on its own (the `vector` source set)
+ * so the rest of the build does not need the module.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // Shorts - as many lanes as the int / float species (half the width)
+    private static final VectorSpecies<Short> WIDENED = VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+    // Gather indexes (the Vector API gathers through an int array) - per thread so the lookups do not allocate
+    private static final ThreadLocal<int[]> indexes = ThreadLocal.withInitial(() -> new int[INTS.length()]);
+
+    private VectorKernels() {}
+
+    static boolean available() {
+        return FLOATS.length() > 1 && INTS.length() == WIDENED.length();
+    }
+
+    /**
+     * The unsigned raw values of the lanes (from the offset) as ints.
+     */
+    private static IntVector unsigned(short[] raw, int offset) {
+        return ((IntVector) ShortVector.fromArray(WIDENED, raw, offset).convertShape(VectorOperators.S2I, INTS, 0))
+            .lanewise(VectorOperators.AND, 0xffff);
+    }
+
+    static void minMax(short[] raw, int offset, int length, int[] range) {
+        // Flipping the sign bit orders unsigned values as signed
+        ShortVector min = ShortVector.broadcast(SHORTS, Short.MAX_VALUE), max = ShortVector.broadcast(SHORTS, Short.MIN_VALUE), v;
+        int i = 0;
+        for (int bound = SHORTS.loopBound(length); i < bound; i += SHORTS.length()) {
+            v = ShortVector.fromArray(SHORTS, raw, offset + i).lanewise(VectorOperators.XOR, (short) 0x8000);
+            min = min.min(v);
+            max = max.max(v);
+        }
+        int lo = Math.min(range[0], (min.reduceLanes(VectorOperators.MIN) ^ 0x8000) & 0xffff);
+        int hi = Math.max(range[1], (max.reduceLanes(VectorOperators.MAX) ^ 0x8000) & 0xffff);
+        for (int u; i < length; i++) {
+            u = raw[offset + i] & 0xffff;
+            if (u < lo) lo = u;
+            if (u > hi) hi = u;
+        }
+        range[0] = lo;
+        range[1] = hi;
+    }
+
+    static void levels(short[] raw, int offset, float[] out, int outOffset, int length, int max, int min) {
+        float from = min * 1f, range = max - min * 1f;
+        int i = 0;
+        for (int bound = INTS.loopBound(length); i < bound; i += INTS.length()) {
+            ((FloatVector) unsigned(raw, offset + i).convert(VectorOperators.I2F, 0))
+                .sub(from).div(range).intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = ((raw[offset + i] & 0xffff) - from) / range;
+        }
+    }
+
+    static void lookup(short[] raw, int offset, float[] table, float[] out, int outOffset, int length) {
+        int[] index = indexes.get();
+        int i = 0;
+        for (int bound = INTS.loopBound(length); i < bound; i += INTS.length()) {
+            unsigned(raw, offset + i).intoArray(index, 0);
+            FloatVector.fromArray(FLOATS, table, 0, index, 0).intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = table[raw[offset + i] & 0xffff];
+        }
+    }
+
+    static void lookup(short[] raw, int offset, int[] table, int[] out, int outOffset, int length) {
+        int[] index = indexes.get();
+        int i = 0;
+        for (int bound = INTS.loopBound(length); i < bound; i += INTS.length()) {
+            unsigned(raw, offset + i).intoArray(index, 0);
+            IntVector.fromArray(INTS, table, 0, index, 0).intoArray(out, outOffset + i);
+        }
+        for (; i < length; i++) {
+            out[outOffset + i] = table[raw[offset + i] & 0xffff];
+        }
+    }
+
+}